@@ -0,0 +1,103 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.aprendizajengrande.gitrecommender.TempDirs;
+import net.aprendizajengrande.gitrecommender.db.DB;
+import net.aprendizajengrande.gitrecommender.db.IntIntView;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// opening and saving a DB holding a synthetic history
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DBBenchmark {
+
+	@Param({ "10000", "100000" })
+	public int commits;
+
+	private SyntheticHistory history;
+	private File dir;
+	private final List<Integer> ids = new ArrayList<>();
+	private int next = 0;
+
+	@Setup
+	public void setup() throws IOException {
+		history = new SyntheticHistory(commits, 500, 20000, 20, 3, 42);
+		dir = history.createDB();
+	}
+
+	@TearDown
+	public void tearDown() {
+		TempDirs.delete(dir);
+	}
+
+	// only maps the file
+	@Benchmark
+	public int load() throws IOException {
+		DB db = new DB(dir);
+		int files = db.files().size();
+		db.close();
+		return files;
+	}
+
+	// maps it and reads every count, as building a recommender does
+	@Benchmark
+	public long loadAndScan() throws IOException {
+		DB db = new DB(dir);
+		long total = 0;
+		for (IntIntView row : db.counts()) {
+			IntIntView.Cursor c = row.cursor();
+			while (c.next())
+				total += c.value();
+		}
+		db.close();
+		return total;
+	}
+
+	// a full snapshot, after one more commit so there is something to save
+	@Benchmark
+	public void save() throws IOException {
+		DB db = new DB(dir);
+		history.observe(db, next++, ids);
+		db.save();
+		db.close();
+	}
+}
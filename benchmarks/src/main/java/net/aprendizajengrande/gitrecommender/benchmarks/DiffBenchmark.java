@@ -0,0 +1,157 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.aprendizajengrande.gitrecommender.TempDirs;
+import net.aprendizajengrande.gitrecommender.TreeDiffer;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// cost per commit of diffing against the first parent: the porcelain diff
+// command with a new RevWalk and ObjectReader per tree (as UpdateLog did
+// before TreeDiffer), a TreeDiffer and its path-only mode
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DiffBenchmark {
+
+	@Param({ "2000" })
+	public int commits;
+
+	@Param({ "20000" })
+	public int files;
+
+	// directories above each file
+	@Param({ "2", "6" })
+	public int depth;
+
+	private Repository repository;
+	private final List<RevCommit> history = new ArrayList<>();
+
+	@Setup
+	public void setup() throws IOException {
+		repository = SyntheticRepo.create(new SyntheticHistory(commits, 50,
+				files, 20, depth, 42));
+		RevWalk walk = new RevWalk(repository);
+		walk.markStart(walk.parseCommit(repository.resolve(Constants.HEAD)));
+		for (RevCommit commit : walk)
+			if (commit.getParentCount() > 0) {
+				walk.parseHeaders(commit.getParent(0));
+				history.add(commit);
+			}
+	}
+
+	@TearDown
+	public void tearDown() {
+		repository.close();
+		TempDirs.delete(repository.getDirectory());
+	}
+
+	@State(Scope.Thread)
+	public static class Differ {
+		TreeDiffer differ;
+		Git git;
+		final List<String> paths = new ArrayList<>();
+		int next = 0;
+
+		@Setup
+		public void setup(DiffBenchmark shared) {
+			differ = new TreeDiffer(shared.repository, false);
+			git = new Git(shared.repository);
+		}
+
+		@TearDown
+		public void tearDown() {
+			differ.release();
+		}
+	}
+
+	private RevCommit next(Differ differ) {
+		return history.get(differ.next++ % history.size());
+	}
+
+	@Benchmark
+	public int porcelain(Differ differ) throws Exception {
+		RevCommit commit = next(differ);
+		List<DiffEntry> diff = differ.git.diff()
+				.setOldTree(prepareTreeParser(commit.getParent(0)))
+				.setNewTree(prepareTreeParser(commit)).call();
+		return diff.size();
+	}
+
+	@Benchmark
+	public int treeDiffer(Differ differ) throws IOException {
+		RevCommit commit = next(differ);
+		return differ.differ.diff(commit.getParent(0).getTree(),
+				commit.getTree()).size();
+	}
+
+	@Benchmark
+	public int changedPaths(Differ differ) throws IOException {
+		RevCommit commit = next(differ);
+		differ.paths.clear();
+		differ.differ.changedPaths(commit.getParent(0).getTree(),
+				commit.getTree(), differ.paths);
+		return differ.paths.size();
+	}
+
+	private AbstractTreeIterator prepareTreeParser(RevCommit commit)
+			throws IOException {
+		RevWalk walk = new RevWalk(repository);
+		RevTree tree = walk.parseTree(commit.getTree().getId());
+		CanonicalTreeParser result = new CanonicalTreeParser();
+		ObjectReader reader = repository.newObjectReader();
+		try {
+			result.reset(reader, tree.getId());
+		} finally {
+			reader.release();
+		}
+		walk.dispose();
+		return result;
+	}
+}
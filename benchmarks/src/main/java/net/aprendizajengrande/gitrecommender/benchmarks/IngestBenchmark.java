@@ -0,0 +1,122 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.aprendizajengrande.gitrecommender.TempDirs;
+import net.aprendizajengrande.gitrecommender.db.DB;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// observing commits into one DB from every available thread (change it with
+// -t), with the DB lock held for the whole commit (the way UpdateLog used to)
+// and only while applying it, after interning outside the lock (the way it
+// does now), plus interning alone
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(Threads.MAX)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class IngestBenchmark {
+
+	@Param({ "100000" })
+	public int commits;
+
+	private SyntheticHistory history;
+	private File dir;
+	private DB db;
+	private final AtomicInteger threads = new AtomicInteger();
+
+	@Setup
+	public void setup() {
+		history = new SyntheticHistory(commits, 500, 20000, 20, 3, 42);
+	}
+
+	// a new DB every iteration, so the journal doesn't grow without bound
+	@Setup(Level.Iteration)
+	public void open() throws IOException {
+		dir = TempDirs.create("ingest");
+		db = new DB(dir);
+	}
+
+	@TearDown(Level.Iteration)
+	public void close() throws IOException {
+		db.sync();
+		db.close();
+		TempDirs.delete(dir);
+	}
+
+	@State(Scope.Thread)
+	public static class Worker {
+		final List<Integer> ids = new ArrayList<>();
+		int next;
+
+		@Setup(Level.Iteration)
+		public void setup(IngestBenchmark shared) {
+			// each thread starts somewhere else in the history
+			next = shared.threads.getAndIncrement() * 7919;
+		}
+	}
+
+	@Benchmark
+	public int idFile(Worker worker) throws IOException {
+		return db.idFile(history.paths[worker.next++ % history.paths.length]);
+	}
+
+	@Benchmark
+	public void observeCommitLocked(Worker worker) throws IOException {
+		synchronized (db) {
+			history.observe(db, worker.next++, worker.ids);
+		}
+	}
+
+	@Benchmark
+	public void observeCommitUnlockedInterning(Worker worker)
+			throws IOException {
+		int c = worker.next++ % history.size();
+		worker.ids.clear();
+		int author = db.idAuthor(history.authors[c]);
+		for (int file : history.files[c])
+			worker.ids.add(db.idFile(history.paths[file]));
+		synchronized (db) {
+			db.observeCommit(history.names[c], author, worker.ids);
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// several clients posting requests to a running GitRecommenderServer, each
+// request body taken in turn from the given files. Reports throughput and
+// latency percentiles.
+public class LoadTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err
+					.println("Usage: LoadTest <server URL> <clients> <requests> <request JSON file>+");
+			System.exit(-1);
+		}
+		final URL url = new URL(args[0]);
+		int clients = Integer.parseInt(args[1]);
+		final int requests = Integer.parseInt(args[2]);
+		final List<byte[]> bodies = new ArrayList<>();
+		for (int i = 3; i < args.length; i++)
+			bodies.add(Files.readAllBytes(Paths.get(args[i])));
+
+		final AtomicInteger sent = new AtomicInteger();
+		final AtomicInteger errors = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		List<Future<List<Long>>> results = new ArrayList<>();
+		long start = System.nanoTime();
+		for (int c = 0; c < clients; c++)
+			results.add(pool.submit(new Callable<List<Long>>() {
+				public List<Long> call() {
+					List<Long> latencies = new ArrayList<>();
+					int request = sent.getAndIncrement();
+					while (request < requests) {
+						long before = System.nanoTime();
+						try {
+							if (!post(url, bodies.get(request % bodies.size())))
+								errors.incrementAndGet();
+						} catch (IOException e) {
+							errors.incrementAndGet();
+						}
+						latencies.add(System.nanoTime() - before);
+						request = sent.getAndIncrement();
+					}
+					return latencies;
+				}
+			}));
+		List<Long> all = new ArrayList<>();
+		for (Future<List<Long>> result : results)
+			all.addAll(result.get());
+		long end = System.nanoTime();
+		pool.shutdown();
+		pool.awaitTermination(1, TimeUnit.MINUTES);
+
+		long[] latencies = new long[all.size()];
+		for (int i = 0; i < latencies.length; i++)
+			latencies[i] = all.get(i);
+		Arrays.sort(latencies);
+		System.out.println(latencies.length + " requests, " + errors.get()
+				+ " errors, " + clients + " clients");
+		System.out.printf("throughput: %.1f requests/s%n", latencies.length
+				/ ((end - start) / 1e9));
+		System.out.printf("latency ms: p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n",
+				percentile(latencies, 0.5), percentile(latencies, 0.9),
+				percentile(latencies, 0.99), percentile(latencies, 1.0));
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		if (sorted.length == 0)
+			return 0;
+		int index = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, index)] / 1e6;
+	}
+
+	// true if the server answered with a recommendation
+	private static boolean post(URL url, byte[] body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", "application/json");
+		OutputStream os = connection.getOutputStream();
+		os.write(body);
+		os.close();
+		if (connection.getResponseCode() != 200) {
+			connection.disconnect();
+			return false;
+		}
+		InputStream is = connection.getInputStream();
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read = is.read(buffer);
+		while (read >= 0) {
+			response.write(buffer, 0, read);
+			read = is.read(buffer);
+		}
+		is.close();
+		return new String(response.toByteArray(), UTF8)
+				.contains("\"recommendation\"");
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.aprendizajengrande.gitrecommender.TempDirs;
+import net.aprendizajengrande.gitrecommender.Recommend;
+import net.aprendizajengrande.gitrecommender.db.DB;
+import net.aprendizajengrande.gitrecommender.reco.CoChangeRecommender;
+import net.aprendizajengrande.gitrecommender.reco.ItemBasedRecommender;
+import net.aprendizajengrande.gitrecommender.reco.ItemBasedRecommender.Similarity;
+import net.aprendizajengrande.gitrecommender.reco.Recommender;
+import net.aprendizajengrande.gitrecommender.reco.ScoredFile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// building a recommender from the DB, a query with a few seed files, and
+// the Recommend command end to end (opening the DB, reading the seeds,
+// writing the recommendations)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RecommendBenchmark {
+
+	@Param({ "20000" })
+	public int commits;
+
+	@Param({ "cosine", "cooccurrence", "cochange" })
+	public String recommender;
+
+	private static final int QUERIES = 100;
+
+	private File dir;
+	private DB db;
+	private Recommender model;
+	private final int[][] seeds = new int[QUERIES][];
+	private File seedFile;
+	private File outputFile;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws IOException {
+		SyntheticHistory history = new SyntheticHistory(commits, 500, 20000,
+				20, 3, 42);
+		dir = history.createDB();
+		db = new DB(dir);
+		model = build();
+
+		// files changed together, as a developer working on a task would
+		// have open
+		Random random = new Random(7);
+		for (int q = 0; q < QUERIES; q++) {
+			int[] files = history.files[random.nextInt(history.size())];
+			seeds[q] = new int[files.length];
+			for (int f = 0; f < files.length; f++)
+				seeds[q][f] = db.idFileOrNull(history.paths[files[f]]);
+		}
+		seedFile = new File(dir, "task");
+		PrintWriter pw = new PrintWriter(seedFile);
+		for (int file : history.files[0])
+			pw.println(history.paths[file]);
+		pw.close();
+		outputFile = new File(dir, "recos");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		db.close();
+		TempDirs.delete(dir);
+	}
+
+	@Benchmark
+	public Recommender build() {
+		if (recommender.equals("cochange"))
+			return new CoChangeRecommender(db.coChanges(), db.files().size());
+		return new ItemBasedRecommender(db,
+				recommender.equals("cosine") ? Similarity.COSINE
+						: Similarity.COOCCURRENCE);
+	}
+
+	@Benchmark
+	public List<ScoredFile> recommend() {
+		return model.recommend(seeds[next++ % QUERIES], Recommend.HOW_MANY);
+	}
+
+	@Benchmark
+	public void endToEnd() throws Exception {
+		if (recommender.equals("cosine"))
+			Recommend.main(new String[] { dir.getPath(), outputFile.getPath(),
+					seedFile.getPath() });
+		else
+			Recommend.main(new String[] { "--" + recommender, dir.getPath(),
+					outputFile.getPath(), seedFile.getPath() });
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.aprendizajengrande.gitrecommender.TempDirs;
+import net.aprendizajengrande.gitrecommender.db.DB;
+
+// a reproducible commit history: who committed and which files each commit
+// changed. A few files change often (the choice is skewed towards low
+// ids), paths are nested depth directories deep.
+public class SyntheticHistory {
+
+	public final String[] names;
+	public final String[] authors;
+	// file ids, without repetitions within a commit
+	public final int[][] files;
+	public final String[] paths;
+
+	public SyntheticHistory(int commits, int authorCount, int fileCount,
+			int maxFilesPerCommit, int depth, long seed) {
+		Random random = new Random(seed);
+		paths = new String[fileCount];
+		for (int file = 0; file < fileCount; file++) {
+			StringBuilder path = new StringBuilder();
+			int dir = file;
+			for (int level = 0; level < depth; level++) {
+				dir /= 10;
+				path.append("d").append(dir % 10).append('/');
+			}
+			paths[file] = path.append("File").append(file).append(".java")
+					.toString();
+		}
+
+		names = new String[commits];
+		authors = new String[commits];
+		files = new int[commits][];
+		for (int c = 0; c < commits; c++) {
+			names[c] = String.format("%040x", c);
+			authors[c] = "Author " + random.nextInt(authorCount);
+			int[] these = new int[1 + random.nextInt(maxFilesPerCommit)];
+			for (int f = 0; f < these.length; f++)
+				these[f] = (int) (fileCount * Math.pow(random.nextDouble(), 3));
+			Arrays.sort(these);
+			int unique = 0;
+			for (int f = 0; f < these.length; f++)
+				if (f == 0 || these[f] != these[f - 1])
+					these[unique++] = these[f];
+			files[c] = Arrays.copyOf(these, unique);
+		}
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	// observes commit c (modulo the size of the history) into the DB
+	public void observe(DB db, int c, List<Integer> ids) throws IOException {
+		c %= names.length;
+		ids.clear();
+		int author = db.idAuthor(authors[c]);
+		for (int file : files[c])
+			ids.add(db.idFile(paths[file]));
+		db.observeCommit(names[c], author, ids);
+	}
+
+	// a saved DB with the whole history in a new temporary directory
+	public File createDB() throws IOException {
+		File dir = TempDirs.create("db");
+		DB db = new DB(dir);
+		List<Integer> ids = new ArrayList<>();
+		for (int c = 0; c < names.length; c++)
+			observe(db, c, ids);
+		db.save();
+		db.close();
+		return dir;
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.aprendizajengrande.gitrecommender.TempDirs;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+// writes a SyntheticHistory as a linear history in a new bare repository,
+// straight into the object database (no working tree), and packs it. Every
+// change gives the file new content.
+public class SyntheticRepo {
+
+	public static Repository create(SyntheticHistory history) throws IOException {
+		File dir = TempDirs.create("repo");
+		Repository repository = new FileRepositoryBuilder().setGitDir(dir)
+				.build();
+		repository.create(true);
+
+		ObjectInserter inserter = repository.newObjectInserter();
+		try {
+			Dir root = new Dir();
+			ObjectId parent = null;
+			long time = 1400000000000L;
+			for (int c = 0; c < history.size(); c++) {
+				for (int file : history.files[c])
+					root.put(history.paths[file], inserter.insert(
+							Constants.OBJ_BLOB,
+							Constants.encode(history.names[c] + " "
+									+ history.paths[file] + "\n")));
+
+				CommitBuilder commit = new CommitBuilder();
+				commit.setTreeId(root.write(inserter));
+				if (parent != null)
+					commit.setParentId(parent);
+				PersonIdent ident = new PersonIdent(history.authors[c],
+						"author@example.com", time + c * 60000L, 0);
+				commit.setAuthor(ident);
+				commit.setCommitter(ident);
+				commit.setMessage("commit " + c);
+				parent = inserter.insert(commit);
+			}
+			inserter.flush();
+
+			RefUpdate head = repository.updateRef(Constants.R_HEADS
+					+ Constants.MASTER);
+			head.setNewObjectId(parent);
+			head.forceUpdate();
+		} finally {
+			inserter.release();
+		}
+
+		// real repositories are mostly packed, so diffs read from packs
+		GC gc = new GC((FileRepository) repository);
+		gc.repack();
+		gc.prunePacked();
+		return repository;
+	}
+
+	// a directory of the current tree, only the ones with changes since the
+	// last commit are written again
+	private static class Dir {
+		// keyed as git sorts tree entries, directory names end in '/'
+		private final TreeMap<String, Object> entries = new TreeMap<>();
+		private ObjectId id;
+
+		void put(String path, ObjectId blob) {
+			id = null;
+			int slash = path.indexOf('/');
+			if (slash < 0) {
+				entries.put(path, blob);
+				return;
+			}
+			String name = path.substring(0, slash + 1);
+			Dir dir = (Dir) entries.get(name);
+			if (dir == null) {
+				dir = new Dir();
+				entries.put(name, dir);
+			}
+			dir.put(path.substring(slash + 1), blob);
+		}
+
+		ObjectId write(ObjectInserter inserter) throws IOException {
+			if (id != null)
+				return id;
+			TreeFormatter tree = new TreeFormatter();
+			for (Map.Entry<String, Object> entry : entries.entrySet()) {
+				String name = entry.getKey();
+				if (entry.getValue() instanceof Dir)
+					tree.append(name.substring(0, name.length() - 1),
+							FileMode.TREE,
+							((Dir) entry.getValue()).write(inserter));
+				else
+					tree.append(name, FileMode.REGULAR_FILE,
+							(ObjectId) entry.getValue());
+			}
+			id = inserter.insert(tree);
+			return id;
+		}
+	}
+}
@@ -19,62 +19,544 @@
 package net.aprendizajengrande.gitrecommender;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.apache.mahout.cf.taste.common.TasteException;
-import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
-import org.apache.mahout.cf.taste.eval.RecommenderEvaluator;
-import org.apache.mahout.cf.taste.impl.eval.RMSRecommenderEvaluator;
-import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
-import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
-import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
-import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
-import org.apache.mahout.cf.taste.impl.similarity.EuclideanDistanceSimilarity;
-import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
-import org.apache.mahout.cf.taste.model.DataModel;
-import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
-import org.apache.mahout.cf.taste.recommender.Recommender;
-import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
-import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import net.aprendizajengrande.gitrecommender.db.CoChangeIndex;
+import net.aprendizajengrande.gitrecommender.db.DB;
+import net.aprendizajengrande.gitrecommender.db.IntIntHashMap;
+import net.aprendizajengrande.gitrecommender.reco.CoChangeRecommender;
+import net.aprendizajengrande.gitrecommender.reco.ItemBasedRecommender;
+import net.aprendizajengrande.gitrecommender.reco.ItemBasedRecommender.Similarity;
+import net.aprendizajengrande.gitrecommender.reco.MinHashRecommender;
+import net.aprendizajengrande.gitrecommender.reco.Recommender;
+import net.aprendizajengrande.gitrecommender.reco.ScoredFile;
 
+// offline evaluation of the recommenders over the commits in a log written
+// by ExtractLog. The files of each test commit are split in two: every other
+// one is a seed, the rest is what the recommender should come up with, from
+// the training commits only. Commits with a single file or more than
+// CoChangeIndex.MAX_COMMIT_FILES are not queried.
+//
+// the splits are k folds of commits at random, or time ordered (trained on
+// the first i/k of the history, tested on the next 1/k). The approximate
+// MinHash recommenders, over authors and over commits, are compared with the
+// exact ones with the given bands and rows. Each algorithm and
+// split is evaluated on a thread of its own, reporting precision and recall
+// at k and mean reciprocal rank, plus build time, query latency and the
+// estimated size of the model.
+//
+// replay streams the commits in order through a DB instead, as UpdateLog
+// would, and before observing each one queries the co-change index with its
+// first half of files for the rest. It reports hit rate (queries with any of
+// the rest in the top k), query latency and commits observed per second, for
+// each part of the history.
 public class Experiment {
 
+	// an algorithm under evaluation
+	interface Algorithm {
+		String name();
+
+		// from the training commits only
+		Recommender build(Commits commits, int[] training);
+
+		// rough heap size of what build kept
+		long bytes(Recommender recommender);
+	}
+
+	private static List<Algorithm> algorithms(int bands, int rows) {
+		return Arrays.asList(new ItemBased(Similarity.COSINE), new ItemBased(
+				Similarity.COOCCURRENCE), new CoChange(), new MinHash(false,
+				bands, rows), new MinHash(true, bands, rows));
+	}
+
 	public static void main(String[] args) throws Exception {
+		String mode = args.length > 1 ? args[1] : "kfold";
+		if (args.length < 1
+				|| args.length > 6
+				|| !(mode.equals("kfold") || mode.equals("time") || mode
+						.equals("replay"))) {
+			System.err
+					.println("Usage: Experiment <log from ExtractLog> [kfold|time|replay] [folds, or parts to report for replay] [recommendations per query] [minhash bands] [minhash rows per band]");
+			System.exit(-1);
+		}
+		File logFile = new File(args[0]);
+		boolean timeOrdered = mode.equals("time");
+		int folds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		int howMany = args.length > 3 ? Integer.parseInt(args[3])
+				: Recommend.HOW_MANY;
+		int bands = args.length > 4 ? Integer.parseInt(args[4])
+				: MinHashRecommender.BANDS;
+		int rows = args.length > 5 ? Integer.parseInt(args[5])
+				: MinHashRecommender.ROWS;
+
+		Commits commits = Commits.read(logFile);
+		System.out.println("For log: " + logFile + " (" + commits.size
+				+ " commits, " + commits.files.size() + " files)");
+		if (mode.equals("replay")) {
+			replay(commits, folds, howMany);
+			return;
+		}
+		List<Split> splits = timeOrdered ? timeSplits(commits.size, folds)
+				: randomSplits(commits.size, folds, new Random(42));
+		System.out.println((timeOrdered ? "Time ordered" : "Random") + ", "
+				+ splits.size() + " splits, top " + howMany);
+
+		ExecutorService threadPool = Executors.newFixedThreadPool(Runtime
+				.getRuntime().availableProcessors());
+		Map<String, List<Future<Result>>> futures = new LinkedHashMap<String, List<Future<Result>>>();
+		try {
+			for (final Algorithm algorithm : algorithms(bands, rows)) {
+				List<Future<Result>> results = new ArrayList<Future<Result>>();
+				for (Split split : splits)
+					results.add(threadPool.submit(new Evaluation(commits,
+							split, algorithm, howMany)));
+				futures.put(algorithm.name(), results);
+			}
+
+			System.out.println("algorithm\tqueries\tP@" + howMany + "\tR@"
+					+ howMany
+					+ "\tMRR\tbuild ms\tp50 us\tp99 us\tmax us\tmodel KB");
+			for (Map.Entry<String, List<Future<Result>>> entry : futures
+					.entrySet()) {
+				Result total = new Result();
+				for (Future<Result> future : entry.getValue())
+					total.add(future.get());
+				System.out.println(entry.getKey() + "\t" + total.summary());
+			}
+		} finally {
+			threadPool.shutdownNow();
+		}
+	}
+
+	// the history in a log, with its ids
+	static class Commits {
+		final List<String> authors = new ArrayList<String>();
+		final List<String> files = new ArrayList<String>();
+		int[] author = new int[1024];
+		int[][] changed = new int[1024][];
+		int size = 0;
+
+		static Commits read(File logFile) throws IOException {
+			final Commits commits = new Commits();
+			ExtractLog.read(logFile, new ExtractLog.Listener() {
+				public void author(int id, String name) {
+					commits.authors.add(name);
+				}
+
+				public void file(int id, String name) {
+					commits.files.add(name);
+				}
+
+				public void commit(String commit, int author,
+						List<Integer> files) {
+					commits.add(author, files);
+				}
+			});
+			return commits;
+		}
+
+		private void add(int authorId, List<Integer> files) {
+			if (size == author.length) {
+				author = Arrays.copyOf(author, size * 2);
+				changed = Arrays.copyOf(changed, size * 2);
+			}
+			int[] ids = new int[files.size()];
+			for (int i = 0; i < ids.length; i++)
+				ids[i] = files.get(i);
+			author[size] = authorId;
+			changed[size] = ids;
+			size++;
+		}
+	}
+
+	// commit numbers, in history order
+	static class Split {
+		final int[] training;
+		final int[] test;
+
+		Split(int[] training, int[] test) {
+			this.training = training;
+			this.test = test;
+		}
+	}
+
+	static List<Split> randomSplits(int commits, int folds,
+			Random random) {
+		List<Integer> order = new ArrayList<Integer>(commits);
+		for (int commit = 0; commit < commits; commit++)
+			order.add(commit);
+		Collections.shuffle(order, random);
+		int[] fold = new int[commits];
+		for (int i = 0; i < commits; i++)
+			fold[order.get(i)] = i % folds;
+
+		List<Split> splits = new ArrayList<Split>();
+		for (int f = 0; f < folds; f++) {
+			int testSize = 0;
+			for (int commit = 0; commit < commits; commit++)
+				if (fold[commit] == f)
+					testSize++;
+			int[] training = new int[commits - testSize];
+			int[] test = new int[testSize];
+			int t = 0, r = 0;
+			for (int commit = 0; commit < commits; commit++)
+				if (fold[commit] == f)
+					test[t++] = commit;
+				else
+					training[r++] = commit;
+			splits.add(new Split(training, test));
+		}
+		return splits;
+	}
+
+	static List<Split> timeSplits(int commits, int folds) {
+		List<Split> splits = new ArrayList<Split>();
+		for (int f = 1; f < folds; f++) {
+			int from = (int) ((long) commits * f / folds);
+			int to = (int) ((long) commits * (f + 1) / folds);
+			splits.add(new Split(range(0, from), range(from, to)));
+		}
+		return splits;
+	}
+
+	private static int[] range(int from, int to) {
+		int[] range = new int[to - from];
+		for (int i = 0; i < range.length; i++)
+			range[i] = from + i;
+		return range;
+	}
+
+	// an algorithm on a split
+	private static class Evaluation implements Callable<Result> {
+		private final Commits commits;
+		private final Split split;
+		private final Algorithm algorithm;
+		private final int howMany;
+
+		Evaluation(Commits commits, Split split, Algorithm algorithm,
+				int howMany) {
+			this.commits = commits;
+			this.split = split;
+			this.algorithm = algorithm;
+			this.howMany = howMany;
+		}
+
+		public Result call() {
+			Result result = new Result();
+			long start = System.nanoTime();
+			Recommender recommender = algorithm.build(commits, split.training);
+			result.buildNanos = System.nanoTime() - start;
+			result.builds = 1;
+			result.bytes = algorithm.bytes(recommender);
+
+			result.latencies = new long[split.test.length];
+			for (int commit : split.test) {
+				int[] files = commits.changed[commit];
+				if (files.length < 2
+						|| files.length > CoChangeIndex.MAX_COMMIT_FILES)
+					continue;
+				int[] seeds = new int[(files.length + 1) / 2];
+				int[] targets = new int[files.length / 2];
+				for (int i = 0; i < files.length; i++)
+					if (i % 2 == 0)
+						seeds[i / 2] = files[i];
+					else
+						targets[i / 2] = files[i];
+
+				long queryStart = System.nanoTime();
+				List<ScoredFile> recos = recommender.recommend(seeds, howMany);
+				result.query(System.nanoTime() - queryStart, recos, targets,
+						howMany);
+			}
+			result.latencies = Arrays.copyOf(result.latencies, result.queries);
+			return result;
+		}
+	}
+
+	// sums over queries and builds, averaged when printed
+	static class Result {
+		int queries = 0;
+		// with any target in the recommendations
+		int hitQueries = 0;
+		double precision = 0;
+		double recall = 0;
+		double reciprocalRank = 0;
+		long buildNanos = 0;
+		int builds = 0;
+		long bytes = 0;
+		long[] latencies = new long[0];
+
+		// latencies must have room for it
+		void query(long nanos, List<ScoredFile> recos, int[] targets,
+				int howMany) {
+			latencies[queries] = nanos;
+			int hits = 0;
+			int firstHit = 0;
+			for (int rank = 0; rank < recos.size(); rank++) {
+				int file = recos.get(rank).file();
+				for (int target : targets)
+					if (target == file) {
+						hits++;
+						if (firstHit == 0)
+							firstHit = rank + 1;
+						break;
+					}
+			}
+			queries++;
+			precision += hits / (double) howMany;
+			recall += hits / (double) targets.length;
+			if (firstHit > 0) {
+				hitQueries++;
+				reciprocalRank += 1.0 / firstHit;
+			}
+		}
+
+		void add(Result other) {
+			int merged = latencies.length;
+			latencies = Arrays.copyOf(latencies, merged
+					+ other.latencies.length);
+			System.arraycopy(other.latencies, 0, latencies, merged,
+					other.latencies.length);
+			queries += other.queries;
+			hitQueries += other.hitQueries;
+			precision += other.precision;
+			recall += other.recall;
+			reciprocalRank += other.reciprocalRank;
+			buildNanos += other.buildNanos;
+			builds += other.builds;
+			bytes += other.bytes;
+		}
+
+		String summary() {
+			Arrays.sort(latencies);
+			int q = Math.max(queries, 1);
+			return String.format(Locale.ROOT,
+					"%d\t%.4f\t%.4f\t%.4f\t%.1f\t%.1f\t%.1f\t%.1f\t%.0f",
+					queries, precision / q, recall / q, reciprocalRank / q,
+					buildNanos / 1e6 / Math.max(builds, 1),
+					percentile(0.5) / 1e3, percentile(0.99) / 1e3,
+					percentile(1) / 1e3,
+					bytes / 1024.0 / Math.max(builds, 1));
+		}
+
+		private long percentile(double p) {
+			if (latencies.length == 0)
+				return 0;
+			int index = (int) Math.ceil(p * latencies.length) - 1;
+			return latencies[Math.max(0, index)];
+		}
+	}
+
+	// in history order through a DB in a scratch folder, querying before
+	// observing each commit
+	private static void replay(Commits commits, int parts, int howMany)
+			throws IOException {
+		File dir = File.createTempFile("gitrecommender-replay", "");
+		if (!dir.delete() || !dir.mkdir())
+			throw new IOException("Cannot create " + dir);
+		DB db = new DB(dir);
+		System.out.println("Replay, top " + howMany);
+		System.out.println("commits\tqueries\thit rate\tR@" + howMany
+				+ "\tMRR\tp50 us\tp99 us\tmax us\tcommits/s");
+		try {
+			Result total = new Result();
+			long totalUpdateNanos = 0;
+			List<Integer> files = new ArrayList<Integer>();
+			int from = 0;
+			for (int part = 1; part <= parts; part++) {
+				int to = (int) ((long) commits.size * part / parts);
+				Result result = new Result();
+				result.latencies = new long[to - from];
+				long updateNanos = 0;
+				for (int commit = from; commit < to; commit++) {
+					int[] changed = commits.changed[commit];
+					if (changed.length >= 2
+							&& changed.length <= CoChangeIndex.MAX_COMMIT_FILES)
+						replayQuery(db, commits, changed, howMany, result);
+
+					long start = System.nanoTime();
+					files.clear();
+					for (int file : changed)
+						files.add(db.idFile(commits.files.get(file)));
+					// the DB is thrown away, the commit names don't matter
+					db.observeCommit(String.valueOf(commit), db
+							.idAuthor(commits.authors.get(commits.author[commit])),
+							files);
+					if ((commit + 1) % 1000 == 0)
+						db.sync();
+					updateNanos += System.nanoTime() - start;
+				}
+				result.latencies = Arrays.copyOf(result.latencies,
+						result.queries);
+				System.out.println(to + "\t" + replaySummary(result, to - from,
+						updateNanos));
+				total.add(result);
+				totalUpdateNanos += updateNanos;
+				from = to;
+			}
+			System.out.println("total\t"
+					+ replaySummary(total, commits.size, totalUpdateNanos));
+		} finally {
+			db.close();
+			File[] children = dir.listFiles();
+			if (children != null)
+				for (File child : children)
+					child.delete();
+			dir.delete();
+		}
+	}
+
+	// the first half of the files of the commit as seeds, files not seen
+	// before can't be either seeds or found
+	private static void replayQuery(DB db, Commits commits, int[] changed,
+			int howMany, Result result) {
+		int seedCount = (changed.length + 1) / 2;
+		int[] seeds = new int[seedCount];
+		int known = 0;
+		for (int i = 0; i < seedCount; i++) {
+			Integer id = db.idFileOrNull(commits.files.get(changed[i]));
+			if (id != null)
+				seeds[known++] = id;
+		}
+		seeds = Arrays.copyOf(seeds, known);
+		int[] targets = new int[changed.length - seedCount];
+		for (int i = 0; i < targets.length; i++) {
+			Integer id = db.idFileOrNull(commits.files.get(changed[seedCount
+					+ i]));
+			targets[i] = id == null ? -1 : id;
+		}
+
+		long start = System.nanoTime();
+		List<ScoredFile> recos = new CoChangeRecommender(db.coChanges(), db
+				.files().size()).recommend(seeds, howMany);
+		result.query(System.nanoTime() - start, recos, targets, howMany);
+	}
 
-		DataModel model = new FileDataModel(new File(args[0]));
-
-		System.out.println("For repo: " + args[0]);
-		System.out.println("User-based:");
-
-		RecommenderEvaluator evaluator = new RMSRecommenderEvaluator();
-		RecommenderBuilder recommenderBuilder = new RecommenderBuilder() {
-			@Override
-			public Recommender buildRecommender(DataModel model)
-					throws TasteException {
-				UserSimilarity similarity = new PearsonCorrelationSimilarity(
-						model);
-				UserNeighborhood neighborhood = new NearestNUserNeighborhood(2,
-						similarity, model);
-				return new GenericUserBasedRecommender(model, neighborhood,
-						similarity);
+	private static String replaySummary(Result result, int commits,
+			long updateNanos) {
+		Arrays.sort(result.latencies);
+		int q = Math.max(result.queries, 1);
+		return String.format(Locale.ROOT,
+				"%d\t%.4f\t%.4f\t%.4f\t%.1f\t%.1f\t%.1f\t%.0f",
+				result.queries, result.hitQueries / (double) q, result.recall
+						/ q, result.reciprocalRank / q,
+				result.percentile(0.5) / 1e3, result.percentile(0.99) / 1e3,
+				result.percentile(1) / 1e3, commits
+						/ Math.max(updateNanos / 1e9, 1e-9));
+	}
+
+	// see ItemBasedRecommender, over the author x file matrix of the
+	// training commits
+	private static class ItemBased implements Algorithm {
+		private final Similarity similarity;
+
+		ItemBased(Similarity similarity) {
+			this.similarity = similarity;
+		}
+
+		public String name() {
+			return similarity.name().toLowerCase(Locale.ROOT);
+		}
+
+		public Recommender build(Commits commits, int[] training) {
+			int authors = commits.authors.size();
+			int[] commitsPerAuthor = new int[authors];
+			IntIntHashMap[] counts = new IntIntHashMap[authors];
+			for (int author = 0; author < authors; author++)
+				counts[author] = new IntIntHashMap();
+			for (int commit : training) {
+				int author = commits.author[commit];
+				commitsPerAuthor[author]++;
+				for (int file : commits.changed[commit])
+					counts[author].increment(file, 1);
 			}
-		};
-		// Use 90% of the data to train; test using the other 10%.
-		double score = evaluator.evaluate(recommenderBuilder, null, model, 0.9,
-				1.0);
-		System.out.println(score);
-
-		recommenderBuilder = new RecommenderBuilder() {
-			@Override
-			public Recommender buildRecommender(DataModel model)
-					throws TasteException {
-				ItemSimilarity similarity =
-						new EuclideanDistanceSimilarity(model);
-						//new LogLikelihoodSimilarity(model);
-				return new GenericItemBasedRecommender(model, similarity);
+			return new ItemBasedRecommender(commitsPerAuthor, counts,
+					commits.files.size(), similarity);
+		}
+
+		public long bytes(Recommender recommender) {
+			return ((ItemBasedRecommender) recommender).heapBytes();
+		}
+	}
+
+	// see CoChangeRecommender, the index built from the training commits
+	private static class CoChange implements Algorithm {
+		public String name() {
+			return "cochange";
+		}
+
+		public Recommender build(Commits commits, int[] training) {
+			CoChangeIndex index = new CoChangeIndex();
+			List<Integer> files = new ArrayList<Integer>();
+			for (int commit : training) {
+				files.clear();
+				for (int file : commits.changed[commit])
+					files.add(file);
+				index.observe(files);
 			}
-		};
-		System.out.println("Item-based:");
-		score = evaluator.evaluate(recommenderBuilder, null, model, 0.9, 1.0);
-		System.out.println(score);
+			return new CoChangeRecommender(index, commits.files.size());
+		}
+
+		public long bytes(Recommender recommender) {
+			return ((CoChangeRecommender) recommender).heapBytes();
+		}
+	}
+
+	// see MinHashRecommender, signatures over the authors or the commits
+	// (but the large ones, as for the co-change index) of each file
+	private static class MinHash implements Algorithm {
+		private final boolean overCommits;
+		private final int bands;
+		private final int rows;
+
+		MinHash(boolean overCommits, int bands, int rows) {
+			this.overCommits = overCommits;
+			this.bands = bands;
+			this.rows = rows;
+		}
+
+		public String name() {
+			return "minhash-" + (overCommits ? "commits" : "authors") + "-"
+					+ bands + "x" + rows;
+		}
+
+		public Recommender build(Commits commits, int[] training) {
+			int[][] sets;
+			if (overCommits) {
+				sets = new int[training.length][];
+				for (int i = 0; i < training.length; i++) {
+					int[] files = commits.changed[training[i]];
+					sets[i] = files.length > CoChangeIndex.MAX_COMMIT_FILES ? new int[0]
+							: files;
+				}
+			} else {
+				IntIntHashMap[] counts = new IntIntHashMap[commits.authors
+						.size()];
+				for (int author = 0; author < counts.length; author++)
+					counts[author] = new IntIntHashMap();
+				for (int commit : training)
+					for (int file : commits.changed[commit])
+						counts[commits.author[commit]].increment(file, 1);
+				sets = MinHashRecommender.authorFiles(counts);
+			}
+			return new MinHashRecommender(sets, commits.files.size(), bands,
+					rows, 42L);
+		}
+
+		public long bytes(Recommender recommender) {
+			return ((MinHashRecommender) recommender).heapBytes();
+		}
 	}
 }
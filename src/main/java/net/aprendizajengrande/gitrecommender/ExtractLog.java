@@ -18,201 +18,377 @@
 
 package net.aprendizajengrande.gitrecommender;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.diff.DiffEntry;
-import org.eclipse.jgit.errors.IncorrectObjectTypeException;
-import org.eclipse.jgit.errors.MissingObjectException;
-import org.eclipse.jgit.lib.ObjectReader;
+import net.aprendizajengrande.gitrecommender.db.IntIntHashMap;
+import net.aprendizajengrande.gitrecommender.db.IntIntView;
+
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevTree;
-import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
-import org.eclipse.jgit.treewalk.AbstractTreeIterator;
-import org.eclipse.jgit.treewalk.CanonicalTreeParser;
 
+// exports the history of a repository as input files for Mahout:
+// <prefix>.dat (author id, file id, 10000 times the share of the commits of
+// the author touching the file, and how many did), <prefix>.users and
+// <prefix>.files (id and name, from 1).
+//
+// the commits are diffed in parallel (see UpdateLog) and appended to
+// <prefix>.log, a later run continues after the last commit in it. With a
+// slice size, the first n, 2n, ... commits are also written as
+// <prefix>.<commits>.dat/.users/.files, replayed from the log in one pass
+// (slices already written are skipped, not checked against the log). Each
+// slice is a full export of the counts so far, k slices write k times the
+// size of the history: the slice count is capped at MAX_SLICES.
+//
+// log lines, tab separated: a <id> <name> | f <id> <name> | c <commit>
+// <author id> <file ids, comma separated>. Ids are declared before the
+// commit using them, a line cut short (from a crash) is dropped.
 public class ExtractLog {
 
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// slices written in one run at most
+	static final int MAX_SLICES = 100;
+
 	public static void main(String[] args) throws Exception {
-		
+		if (args.length < 2 || args.length > 3) {
+			System.err
+					.println("Usage: ExtractLog <git dir> <output prefix> [commits per slice]\n"
+							+ "(at most "
+							+ MAX_SLICES
+							+ " slices, those already written are kept as they are, without checking them against the log)");
+			System.exit(-1);
+		}
+		String prefix = args[1];
+		int slice = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+		File logFile = new File(prefix + ".log");
+
+		final History history = new History();
+		if (logFile.exists()) {
+			truncateTorn(logFile);
+			replay(logFile, history, 0, null);
+			System.out.println("Resuming after " + history.commits
+					+ " commits");
+		}
+
 		FileRepositoryBuilder builder = new FileRepositoryBuilder();
 		System.out.println("Git dir: " + args[0]);
 		Repository repository = builder.setGitDir(new File(args[0]))
 				.readEnvironment() // scan environment GIT_* variables
 				.findGitDir() // scan up the file system tree
 				.build();
+		if (history.lastCommit != null
+				&& !repository.hasObject(ObjectId
+						.fromString(history.lastCommit))) {
+			System.err.println("Commit " + history.lastCommit
+					+ " is not in the repository, remove " + logFile
+					+ " to start over");
+			System.exit(-1);
+		}
 
-		Git git = new Git(repository);
-		Iterable<RevCommit> log = git.log().call();
-
-		RevCommit previous = null;
-		String previousAuthor = null;
-
-		// author -> file -> counts
-		Map<String, Map<String, Counter>> counts = new HashMap<>();
-		Map<String, Counter> commitCounts = new HashMap<>(); // author -> counts
-		Map<String, Integer> authorIds = new HashMap<>();
-		Map<String, Integer> fileIds = new HashMap<>();
-		List<String> authors = new ArrayList<>();
-		List<String> files = new ArrayList<>();
-
-		int commitNum = 0;
-
-		for (RevCommit commit : log) {
-			commitNum++;
-			if (commitNum % 1000 == 0) {
-				System.out.println(commitNum);
-
-				// compute affinity for files as % of commits that touch that
-				// file
-				PrintWriter pw = new PrintWriter(args[1] + "." + commitNum
-						+ ".dat");
-				for (String author : commitCounts.keySet()) {
-					double totalCommits = commitCounts.get(author).intValue();
-					for (Map.Entry<String, Counter> c : counts.get(author)
-							.entrySet()) {
-						pw.println(authorIds.get(author)
-								+ "\t"
-								+ fileIds.get(c.getKey())
-								+ "\t"
-								+ ((c.getValue().intValue() / totalCommits) * 10000)
-								+ "\t" + c.getValue().intValue());
-					}
-				}
-				pw.close();
+		final long start = System.currentTimeMillis();
+		final PrintWriter log = new PrintWriter(new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(logFile, true),
+						UTF8), 1 << 16));
+		long extracted;
+		try {
+			extracted = UpdateLog.ingest(repository, history.lastCommit,
+					new UpdateLog.Sink() {
+						public int idAuthor(String author) {
+							return history.authors.id(author);
+						}
+
+						public int idFile(String file) {
+							return history.files.id(file);
+						}
+
+						public void commit(long num, String commit,
+								int author, List<Integer> files)
+								throws IOException {
+							history.append(log, commit, author, files);
+							if (num % 1000 == 0) {
+								log.flush();
+								System.out.println("Extracted " + num
+										+ " commits in "
+										+ ((System.currentTimeMillis() - start) / 1000)
+										+ " secs.");
+							}
+						}
+					}, new UpdateLog.Progress());
+		} finally {
+			log.close();
+			repository.close();
+		}
+		if (log.checkError())
+			throw new IOException("Cannot write " + logFile);
+		System.out.println("Extracted " + extracted + " new commits, "
+				+ history.commits + " in total.");
 
-				pw = new PrintWriter(args[1] + "." + commitNum + ".users");
-				int id = 1;
-				for (String author : authors) {
-					pw.println(id + "\t" + author);
-					id++;
+		history.write(prefix);
+
+		if (slice > 0 && history.commits / slice > MAX_SLICES) {
+			System.err.println(history.commits / slice + " slices of " + slice
+					+ " commits, at most " + MAX_SLICES
+					+ " are written: use at least "
+					+ ((history.commits + MAX_SLICES - 1) / MAX_SLICES)
+					+ " commits per slice");
+			System.exit(-1);
+		}
+		if (slice > 0) {
+			final String slicePrefix = prefix;
+			final int every = slice;
+			replay(logFile, new History(), every, new SliceListener() {
+				public void slice(History sliced) throws IOException {
+					String name = slicePrefix + "." + sliced.commits;
+					if (!new File(name + ".dat").exists())
+						sliced.write(name);
 				}
-				pw.close();
+			});
+		}
+		System.out.println("Export took: "
+				+ ((System.currentTimeMillis() - start) / 1000) + " secs.");
+	}
 
-				pw = new PrintWriter(args[1] + "." + commitNum + ".files");
-				id = 1;
-				for (String file : files) {
-					pw.println(id + "\t" + file);
-					id++;
+	// thread-safe name <-> id mapping, ids are handed out in order
+	private static class Ids {
+		private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+		// guarded by this object
+		private final List<String> names = new ArrayList<String>();
+
+		int id(String name) {
+			Integer id = ids.get(name);
+			if (id != null)
+				return id;
+			synchronized (this) {
+				id = ids.get(name);
+				if (id == null) {
+					id = names.size();
+					names.add(name);
+					ids.put(name, id);
 				}
-				pw.close();
+				return id;
 			}
-			// System.out.println("Author: " +
-			// commit.getAuthorIdent().getName());
-			String author = commit.getAuthorIdent().getName();
-			if (!counts.containsKey(author)) {
-				counts.put(author, new HashMap<String, Counter>());
-				commitCounts.put(author, new Counter(1));
-				authorIds.put(author, authorIds.size() + 1);
-				authors.add(author);
-			} else {
-				commitCounts.get(author).inc();
+		}
+
+		synchronized String get(int id) {
+			return names.get(id);
+		}
+
+		synchronized int size() {
+			return names.size();
+		}
+	}
+
+	// the counts of the commits so far, built from the log and the new
+	// commits
+	private static class History {
+		final Ids authors = new Ids();
+		final Ids files = new Ids();
+		// per author, file id -> commits
+		IntIntHashMap[] counts = new IntIntHashMap[16];
+		int[] commitCounts = new int[16];
+		long commits = 0;
+		String lastCommit = null;
+		// ids in the log already
+		private int loggedAuthors = 0;
+		private int loggedFiles = 0;
+
+		void commit(String commit, int author, List<Integer> touched) {
+			if (author >= counts.length) {
+				int capacity = Math.max(author + 1, counts.length * 2);
+				counts = Arrays.copyOf(counts, capacity);
+				commitCounts = Arrays.copyOf(commitCounts, capacity);
 			}
+			if (counts[author] == null)
+				counts[author] = new IntIntHashMap();
+			commitCounts[author]++;
+			for (int file : touched)
+				counts[author].increment(file, 1);
+			commits++;
+			lastCommit = commit;
+		}
 
-			if (previous != null) {
-				AbstractTreeIterator oldTreeParser = prepareTreeParser(
-						repository, previous);
-				AbstractTreeIterator newTreeParser = prepareTreeParser(
-						repository, commit);
-				// then the procelain diff-command returns a list of diff
-				// entries
-				List<DiffEntry> diff = git.diff().setOldTree(oldTreeParser)
-						.setNewTree(newTreeParser).call();
-				for (DiffEntry entry : diff) {
-					// System.out.println("\tFile: " + entry.getNewPath());
-					String file = entry.getNewPath();
-					if (!fileIds.containsKey(file)) {
-						fileIds.put(file, fileIds.size() + 1);
-						files.add(file);
-					}
-					if (!counts.get(previousAuthor).containsKey(file)) {
-						counts.get(previousAuthor).put(file, new Counter(1));
-					} else {
-						counts.get(previousAuthor).get(file).inc();
-					}
-				}
-				// diff.dispose();
-				// previous.dispose();
+		// the new ids and the commit as log lines
+		void append(PrintWriter log, String commit, int author,
+				List<Integer> touched) {
+			for (int size = authors.size(); loggedAuthors < size; loggedAuthors++)
+				log.println("a\t" + loggedAuthors + "\t"
+						+ escape(authors.get(loggedAuthors)));
+			for (int size = files.size(); loggedFiles < size; loggedFiles++)
+				log.println("f\t" + loggedFiles + "\t"
+						+ escape(files.get(loggedFiles)));
+			StringBuilder line = new StringBuilder("c\t").append(commit)
+					.append('\t').append(author).append('\t');
+			for (int i = 0; i < touched.size(); i++) {
+				if (i > 0)
+					line.append(',');
+				line.append(touched.get(i));
 			}
-			previous = commit;
-			previousAuthor = author;
+			log.println(line);
+			commit(commit, author, touched);
 		}
 
 		// compute affinity for files as % of commits that touch that file
-		PrintWriter pw = new PrintWriter(args[1] + ".dat");
-		for (String author : commitCounts.keySet()) {
-			double totalCommits = commitCounts.get(author).intValue();
-			for (Map.Entry<String, Counter> c : counts.get(author).entrySet()) {
-				pw.println(authorIds.get(author) + "\t"
-						+ fileIds.get(c.getKey()) + "\t"
-						+ ((c.getValue().intValue() / totalCommits) * 10000)
-						+ "\t" + c.getValue().intValue());
+		void write(String prefix) throws IOException {
+			PrintWriter pw = writer(prefix + ".users");
+			for (int id = 0; id < authors.size(); id++)
+				pw.println((id + 1) + "\t" + authors.get(id));
+			pw.close();
+
+			pw = writer(prefix + ".files");
+			for (int id = 0; id < files.size(); id++)
+				pw.println((id + 1) + "\t" + files.get(id));
+			pw.close();
+
+			// last, a slice with its .dat is complete
+			pw = writer(prefix + ".dat");
+			for (int author = 0; author < counts.length; author++) {
+				if (counts[author] == null)
+					continue;
+				double totalCommits = commitCounts[author];
+				IntIntView.Cursor c = counts[author].cursor();
+				while (c.next())
+					pw.println((author + 1) + "\t" + (c.key() + 1) + "\t"
+							+ ((c.value() / totalCommits) * 10000) + "\t"
+							+ c.value());
 			}
+			pw.close();
+			if (pw.checkError())
+				throw new IOException("Cannot write " + prefix + ".dat");
 		}
-		pw.close();
+	}
 
-		pw = new PrintWriter(args[1] + ".users");
-		int id = 1;
-		for (String author : authors) {
-			pw.println(id + "\t" + author);
-			id++;
-		}
-		pw.close();
+	// what a log has, in order
+	interface Listener {
+		void author(int id, String name) throws IOException;
 
-		pw = new PrintWriter(args[1] + ".files");
-		id = 1;
-		for (String file : files) {
-			pw.println(id + "\t" + file);
-			id++;
-		}
-		pw.close();
+		void file(int id, String name) throws IOException;
 
-		repository.close();
+		// files is reused for the next commit
+		void commit(String commit, int author, List<Integer> files)
+				throws IOException;
 	}
 
-	private static AbstractTreeIterator prepareTreeParser(
-			Repository repository, RevCommit commit) throws IOException,
-			MissingObjectException, IncorrectObjectTypeException {
-		// from the commit we can build the tree which allows us to construct
-		// the TreeParser
-		RevWalk walk = new RevWalk(repository);
-		RevTree tree = walk.parseTree(commit.getTree().getId());
-		CanonicalTreeParser result = new CanonicalTreeParser();
-		ObjectReader reader = repository.newObjectReader();
+	// reads a log written by this class, see above
+	static void read(File logFile, Listener listener) throws IOException {
+		BufferedReader br = new BufferedReader(new InputStreamReader(
+				new FileInputStream(logFile), UTF8), 1 << 16);
 		try {
-			result.reset(reader, tree.getId());
+			List<Integer> touched = new ArrayList<Integer>();
+			String line;
+			while ((line = br.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				if (fields[0].equals("a"))
+					listener.author(Integer.parseInt(fields[1]),
+							unescape(fields[2]));
+				else if (fields[0].equals("f"))
+					listener.file(Integer.parseInt(fields[1]),
+							unescape(fields[2]));
+				else if (fields[0].equals("c")) {
+					touched.clear();
+					if (!fields[3].isEmpty())
+						for (String file : fields[3].split(","))
+							touched.add(Integer.valueOf(file));
+					listener.commit(fields[1], Integer.parseInt(fields[2]),
+							touched);
+				} else
+					throw new IOException("Unexpected line in " + logFile
+							+ ": " + line);
+			}
 		} finally {
-			reader.release();
+			br.close();
 		}
-		walk.dispose();
-		return result;
 	}
 
-	public static class Counter {
-		private int count;
+	private interface SliceListener {
+		void slice(History history) throws IOException;
+	}
 
-		public Counter() {
-			this(0);
-		}
+	// reads the log into the history, calling the listener every
+	// sliceCommits commits if given
+	private static void replay(File logFile, final History history,
+			final int sliceCommits, final SliceListener listener)
+			throws IOException {
+		read(logFile, new Listener() {
+			public void author(int id, String name) throws IOException {
+				checkId(history.authors.id(name), id);
+			}
 
-		public Counter(int count) {
-			this.count = count;
-		}
+			public void file(int id, String name) throws IOException {
+				checkId(history.files.id(name), id);
+			}
 
-		public void inc() {
-			count++;
+			public void commit(String commit, int author, List<Integer> files)
+					throws IOException {
+				history.commit(commit, author, files);
+				if (listener != null && history.commits % sliceCommits == 0)
+					listener.slice(history);
+			}
+		});
+		history.loggedAuthors = history.authors.size();
+		history.loggedFiles = history.files.size();
+	}
+
+	private static void checkId(int id, int logged) throws IOException {
+		if (id != logged)
+			throw new IOException("Out of order id in log: " + logged);
+	}
+
+	// drops what follows the last newline
+	private static void truncateTorn(File logFile) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(logFile, "rw");
+		try {
+			long length = raf.length();
+			while (length > 0) {
+				raf.seek(length - 1);
+				if (raf.read() == '\n')
+					break;
+				length--;
+			}
+			raf.setLength(length);
+		} finally {
+			raf.close();
 		}
+	}
+
+	private static PrintWriter writer(String name) throws IOException {
+		return new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(name), UTF8), 1 << 16));
+	}
+
+	// names in the log stay on one line, readLine() ends lines at '\r' too
+	static String escape(String name) {
+		return name.replace("\\", "\\\\").replace("\t", "\\t")
+				.replace("\n", "\\n").replace("\r", "\\r");
+	}
 
-		public int intValue() {
-			return count;
+	static String unescape(String name) {
+		if (name.indexOf('\\') < 0)
+			return name;
+		StringBuilder sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c == '\\' && i + 1 < name.length()) {
+				char next = name.charAt(++i);
+				sb.append(next == 't' ? '\t' : next == 'n' ? '\n'
+						: next == 'r' ? '\r' : next);
+			} else
+				sb.append(c);
 		}
+		return sb.toString();
 	}
-}
\ No newline at end of file
+}
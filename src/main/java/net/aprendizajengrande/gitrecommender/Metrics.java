@@ -0,0 +1,222 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// counters, gauges and latency histograms of this process, written out in
+// the Prometheus text format. Updating them takes a couple of atomic
+// increments, registering them takes the lock of the registry: keep them in
+// static fields.
+public class Metrics {
+
+	private static final Metrics REGISTRY = new Metrics();
+
+	public static Metrics registry() {
+		return REGISTRY;
+	}
+
+	// a value computed when the metrics are written
+	public interface Value {
+		public double get();
+	}
+
+	private abstract static class Metric {
+		// as in {name="value",...}, may be empty
+		final String labels;
+
+		Metric(String labels) {
+			this.labels = labels;
+		}
+
+		abstract void write(String name, PrintWriter out);
+	}
+
+	public static class Counter extends Metric {
+		private final AtomicLong count = new AtomicLong();
+
+		Counter(String labels) {
+			super(labels);
+		}
+
+		public void inc() {
+			count.incrementAndGet();
+		}
+
+		public void add(long delta) {
+			count.addAndGet(delta);
+		}
+
+		void write(String name, PrintWriter out) {
+			out.println(name + braces(labels) + " " + count.get());
+		}
+	}
+
+	// cumulative buckets of durations, in seconds
+	public static class Histogram extends Metric {
+		private static final double[] BOUNDS = { 0.0005, 0.001, 0.0025,
+				0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30,
+				60 };
+		private static final long[] NANOS = new long[BOUNDS.length];
+		static {
+			for (int i = 0; i < BOUNDS.length; i++)
+				NANOS[i] = (long) (BOUNDS[i] * 1e9);
+		}
+
+		// per bucket, not cumulative, the last one is +Inf
+		private final AtomicLongArray counts = new AtomicLongArray(
+				BOUNDS.length + 1);
+		private final AtomicLong sumNanos = new AtomicLong();
+
+		Histogram(String labels) {
+			super(labels);
+		}
+
+		public void observeNanos(long nanos) {
+			int bucket = 0;
+			while (bucket < NANOS.length && nanos > NANOS[bucket])
+				bucket++;
+			counts.incrementAndGet(bucket);
+			sumNanos.addAndGet(nanos);
+		}
+
+		// from a System.nanoTime() taken before
+		public void observeSince(long startNanos) {
+			observeNanos(System.nanoTime() - startNanos);
+		}
+
+		void write(String name, PrintWriter out) {
+			String prefix = labels.isEmpty() ? "" : labels + ",";
+			long cumulative = 0;
+			for (int i = 0; i <= BOUNDS.length; i++) {
+				cumulative += counts.get(i);
+				out.println(name + "_bucket{" + prefix + "le=\""
+						+ (i < BOUNDS.length ? BOUNDS[i] : "+Inf") + "\"} "
+						+ cumulative);
+			}
+			out.println(name + "_sum" + braces(labels) + " " + sumNanos.get()
+					/ 1e9);
+			out.println(name + "_count" + braces(labels) + " " + cumulative);
+		}
+	}
+
+	private static class Computed extends Metric {
+		private final Value value;
+
+		Computed(String labels, Value value) {
+			super(labels);
+			this.value = value;
+		}
+
+		void write(String name, PrintWriter out) {
+			out.println(name + braces(labels) + " " + value.get());
+		}
+	}
+
+	private static class Family {
+		final String type;
+		final String help;
+		final List<Metric> metrics = new ArrayList<Metric>();
+
+		Family(String type, String help) {
+			this.type = type;
+			this.help = help;
+		}
+	}
+
+	// by name, in registration order
+	private final Map<String, Family> families = new LinkedHashMap<String, Family>();
+
+	// labels as in path="/recommend", empty for none. Registering the same
+	// name and labels again gives the same counter or histogram
+	public synchronized Counter counter(String name, String labels,
+			String help) {
+		Metric existing = find(name, "counter", labels, help);
+		if (existing != null)
+			return (Counter) existing;
+		Counter counter = new Counter(labels);
+		families.get(name).metrics.add(counter);
+		return counter;
+	}
+
+	public synchronized Histogram histogram(String name, String labels,
+			String help) {
+		Metric existing = find(name, "histogram", labels, help);
+		if (existing != null)
+			return (Histogram) existing;
+		Histogram histogram = new Histogram(labels);
+		families.get(name).metrics.add(histogram);
+		return histogram;
+	}
+
+	// a counter kept elsewhere, replaces the one registered before if any
+	public synchronized void counter(String name, String labels, String help,
+			Value value) {
+		computed(name, "counter", labels, help, value);
+	}
+
+	public synchronized void gauge(String name, String labels, String help,
+			Value value) {
+		computed(name, "gauge", labels, help, value);
+	}
+
+	private void computed(String name, String type, String labels,
+			String help, Value value) {
+		Metric existing = find(name, type, labels, help);
+		List<Metric> metrics = families.get(name).metrics;
+		if (existing != null)
+			metrics.remove(existing);
+		metrics.add(new Computed(labels, value));
+	}
+
+	private Metric find(String name, String type, String labels, String help) {
+		Family family = families.get(name);
+		if (family == null) {
+			families.put(name, new Family(type, help));
+			return null;
+		}
+		if (!family.type.equals(type))
+			throw new IllegalArgumentException(name + " is a " + family.type);
+		for (Metric metric : family.metrics)
+			if (metric.labels.equals(labels))
+				return metric;
+		return null;
+	}
+
+	public synchronized void write(PrintWriter out) {
+		for (Map.Entry<String, Family> entry : families.entrySet()) {
+			String name = entry.getKey();
+			Family family = entry.getValue();
+			out.println("# HELP " + name + " " + family.help);
+			out.println("# TYPE " + name + " " + family.type);
+			for (Metric metric : family.metrics)
+				metric.write(name, out);
+		}
+	}
+
+	private static String braces(String labels) {
+		return labels.isEmpty() ? "" : "{" + labels + "}";
+	}
+}
@@ -25,10 +25,20 @@ import java.io.FileWriter;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 
 import net.aprendizajengrande.gitrecommender.db.DB;
+import net.aprendizajengrande.gitrecommender.db.IntIntView;
+import net.aprendizajengrande.gitrecommender.reco.CoChangeRecommender;
+import net.aprendizajengrande.gitrecommender.reco.ItemBasedRecommender;
+import net.aprendizajengrande.gitrecommender.reco.ItemBasedRecommender.Similarity;
+import net.aprendizajengrande.gitrecommender.reco.MinHashRecommender;
+import net.aprendizajengrande.gitrecommender.reco.Recommendation;
+import net.aprendizajengrande.gitrecommender.reco.Recommender;
+import net.aprendizajengrande.gitrecommender.reco.ScoredFile;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
@@ -38,13 +48,167 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.mahout.cf.taste.hadoop.item.RecommenderJob;
 
+// recommendations from a DB, in memory (see the instance methods) or from
+// the command line. The instance methods can be called from several threads
+// while the DB is not being changed.
 public class Recommend {
 
+	// recommendations per author (or for the extra files), as in Mahout's
+	// RecommenderJob default
+	public static final int HOW_MANY = 10;
+
+	private final DB db;
+	private final Recommender recommender;
+
+	public Recommend(DB db, Recommender recommender) {
+		this.db = db;
+		this.recommender = recommender;
+	}
+
+	public DB db() {
+		return db;
+	}
+
+	public Recommender recommender() {
+		return recommender;
+	}
+
+	// the best files to go with the given ones, files unknown to the DB are
+	// ignored
+	public List<Recommendation> recommend(Collection<String> seedFiles,
+			int howMany) {
+		return named(recommend(seeds(seedFiles), howMany));
+	}
+
+	public List<ScoredFile> recommend(int[] seedFiles, int howMany) {
+		return recommender.recommend(seedFiles, howMany);
+	}
+
+	// ids of the files known to the DB, sorted and without repetitions
+	public int[] seeds(Collection<String> seedFiles) {
+		int[] seeds = new int[seedFiles.size()];
+		int count = 0;
+		for (String file : seedFiles) {
+			Integer fileId = db.idFileOrNull(file);
+			if (fileId != null)
+				seeds[count++] = fileId;
+		}
+		Arrays.sort(seeds, 0, count);
+		int unique = 0;
+		for (int i = 0; i < count; i++)
+			if (i == 0 || seeds[i] != seeds[i - 1])
+				seeds[unique++] = seeds[i];
+		return Arrays.copyOf(seeds, unique);
+	}
+
+	public List<Recommendation> named(List<ScoredFile> recos) {
+		List<String> files = db.files();
+		List<Recommendation> result = new ArrayList<Recommendation>(
+				recos.size());
+		for (ScoredFile reco : recos)
+			result.add(new Recommendation(files.get(reco.file()), reco
+					.score()));
+		return result;
+	}
+
 	public static void main(String[] args) throws Exception {
 
+		if (args.length > 0 && args[0].equals("--hadoop")) {
+			String[] rest = new String[args.length - 1];
+			System.arraycopy(args, 1, rest, 0, rest.length);
+			hadoop(rest);
+			return;
+		}
+
+		Similarity similarity = Similarity.COSINE;
+		boolean coChange = false;
+		boolean minHash = false;
+		int first = 0;
+		while (first < args.length && args[first].startsWith("--")) {
+			if (args[first].equals("--cooccurrence"))
+				similarity = Similarity.COOCCURRENCE;
+			else if (args[first].equals("--cochange"))
+				coChange = true;
+			else if (args[first].equals("--minhash"))
+				minHash = true;
+			first++;
+		}
+		String[] rest = new String[args.length - first];
+		System.arraycopy(args, first, rest, 0, rest.length);
+		args = rest;
+
+		if (args.length != 2 && args.length != 3) {
+			System.err
+					.println("Usage: [--cooccurrence|--cochange|--minhash] <db dir> <output file> <dyn files?>\n"
+							+ "       --hadoop <db dir> <hdfs folder for input> <hdfs folder for output> <output file> <dyn files?>");
+			System.exit(1);
+		}
+
+		DB db = new DB(new File(args[0]));
+		Recommend recommend = new Recommend(db, minHash ? new MinHashRecommender(
+				db, MinHashRecommender.BANDS, MinHashRecommender.ROWS)
+				: recommender(db, coChange, similarity));
+
+		PrintWriter pw = new PrintWriter(new FileWriter(new File(args[1])));
+		if (args.length == 3) {
+			List<String> seeds = new ArrayList<String>();
+			BufferedReader br = new BufferedReader(new FileReader(args[2]));
+			String line = br.readLine();
+			while (line != null) {
+				seeds.add(line);
+				line = br.readLine();
+			}
+			br.close();
+			for (Recommendation reco : recommend.recommend(seeds, HOW_MANY))
+				pw.println("extra\t" + reco);
+		} else {
+			List<String> authors = db.authors();
+			for (int author = 0; author < authors.size(); author++) {
+				IntIntView counts = db.counts(author);
+				int[] authorFiles = new int[counts.size()];
+				int pos = 0;
+				IntIntView.Cursor c = counts.cursor();
+				while (c.next())
+					authorFiles[pos++] = c.key();
+				for (Recommendation reco : recommend.named(recommend
+						.recommend(authorFiles, HOW_MANY)))
+					pw.println(authors.get(author) + "\t" + reco);
+			}
+		}
+		pw.close();
+	}
+
+	// the co-change recommender if asked for and the DB has the index,
+	// otherwise the item-based one with the given similarity
+	public static Recommender recommender(DB db, boolean coChange,
+			Similarity similarity) {
+		return recommender(db, coChange, similarity, null, null);
+	}
+
+	// as above, an item-based recommender is updated from the previous one
+	// (of the same DB, fewer commits ago, with the same similarity) instead
+	// of built from scratch. changedAuthors are the authors with commits
+	// since then, found by comparing all of them if null
+	public static Recommender recommender(DB db, boolean coChange,
+			Similarity similarity, Recommender previous, int[] changedAuthors) {
+		if (coChange && !db.coChanges().isEmpty())
+			return new CoChangeRecommender(db.coChanges(), db.files().size());
+		if (coChange)
+			System.err.println("No co-change index in " + db.dataDir()
+					+ ", using item-based recommender.");
+		if (previous instanceof ItemBasedRecommender)
+			return changedAuthors == null ? ((ItemBasedRecommender) previous)
+					.update(db) : ((ItemBasedRecommender) previous).update(db,
+					changedAuthors);
+		return new ItemBasedRecommender(db, similarity);
+	}
+
+	// batch mode, runs Mahout's RecommenderJob on a Hadoop cluster
+	private static void hadoop(String[] args) throws Exception {
+
 		if (args.length != 4 && args.length != 5) {
 			System.err
-					.println("Usage: <db dir> <hdfs folder for input> <hdfs folder for output> <output file> <dyn files?>");
+					.println("Usage: --hadoop <db dir> <hdfs folder for input> <hdfs folder for output> <output file> <dyn files?>");
 			System.exit(1);
 		}
 
@@ -81,16 +245,17 @@ public class Recommend {
 
 		// compute affinity for files as % of commits that touch that file
 		int[] authorCommitCounts = db.commitsPerAuthor();
-		Map<Integer, Integer> counts[] = db.counts();
+		IntIntView counts[] = db.counts();
 
 		for (int author = 0; author < authorCommitCounts.length; author++) {
-			for (Map.Entry<Integer, Integer> c : counts[author].entrySet()) {
+			IntIntView.Cursor c = counts[author].cursor();
+			while (c.next()) {
 				pw.println(author
 						+ "\t"
-						+ c.getKey()
+						+ c.key()
 						+ "\t"
-						+ ((c.getValue() / (authorCommitCounts[author] * 1.0)) * 10000.0)
-						+ "\t" + c.getValue().intValue());
+						+ ((c.value() / (authorCommitCounts[author] * 1.0)) * 10000.0)
+						+ "\t" + c.value());
 			}
 		}
 
@@ -0,0 +1,95 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+// diffs trees with the same reader, tree walk and (optionally) rename
+// detector for every commit, so JGit's inflater and delta base caches
+// survive from one diff to the next. Gives the same entries as the porcelain
+// git.diff().setOldTree().setNewTree().call().
+// not thread-safe, keep one per thread
+public class TreeDiffer {
+
+	private final ObjectReader reader;
+	private final TreeWalk treeWalk;
+
+	// null unless renames are detected
+	private final RenameDetector renames;
+
+	public TreeDiffer(Repository repository, boolean detectRenames) {
+		this.reader = repository.newObjectReader();
+		this.treeWalk = new TreeWalk(reader);
+		treeWalk.setRecursive(true);
+		treeWalk.setFilter(TreeFilter.ANY_DIFF);
+		this.renames = detectRenames ? new RenameDetector(repository) : null;
+	}
+
+	// a null old tree stands for the empty tree
+	public List<DiffEntry> diff(AnyObjectId oldTree, AnyObjectId newTree)
+			throws IOException {
+		reset(oldTree, newTree);
+		List<DiffEntry> entries = DiffEntry.scan(treeWalk);
+		if (renames == null)
+			return entries;
+		renames.reset();
+		renames.addAll(entries);
+		return renames.compute(reader, NullProgressMonitor.INSTANCE);
+	}
+
+	// adds the paths changed between the trees without building the diff
+	// entries: the path of each entry diff() would return, its old path for
+	// a deletion (never DiffEntry.DEV_NULL) and the path once for a change
+	// of type. Only tree objects are read, subtrees with the same id on both
+	// sides are skipped without opening them.
+	public void changedPaths(AnyObjectId oldTree, AnyObjectId newTree,
+			List<String> paths) throws IOException {
+		if (renames != null)
+			throw new IllegalStateException("Renames need the diff entries");
+		reset(oldTree, newTree);
+		while (treeWalk.next())
+			paths.add(treeWalk.getPathString());
+	}
+
+	private void reset(AnyObjectId oldTree, AnyObjectId newTree)
+			throws IOException {
+		if (oldTree == null) {
+			treeWalk.reset();
+			treeWalk.addTree(new EmptyTreeIterator());
+			treeWalk.addTree(newTree);
+		} else
+			treeWalk.reset(oldTree, newTree);
+	}
+
+	public void release() {
+		treeWalk.release();
+		reader.release();
+	}
+}
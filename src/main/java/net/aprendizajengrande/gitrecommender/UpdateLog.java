@@ -18,31 +18,115 @@
 
 package net.aprendizajengrande.gitrecommender;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.aprendizajengrande.gitrecommender.db.DB;
 
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.diff.DiffEntry;
-import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
-import org.eclipse.jgit.treewalk.AbstractTreeIterator;
-import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.util.RawParseUtils;
 
+// new commits go through three stages: a walk of the history (oldest
+// first), diffs against their first parent in parallel and their
+// observation into the DB, in order. At most WINDOW commits are between the
+// first and the last stage, the walk waits for the DB to catch up. To walk
+// oldest first without keeping every commit, the new commit ids are listed
+// newest first into a temporary file and read back from its end.
 public class UpdateLog {
 
+	private static final int WINDOW = 1024;
+
+	// of all the updates of this process, see Metrics
+	private static final Metrics.Counter COMMITS = Metrics.registry()
+			.counter("gitrecommender_ingest_commits_total", "",
+					"Commits imported into a DB.");
+	private static final Metrics.Histogram DIFF = Metrics.registry()
+			.histogram("gitrecommender_ingest_diff_seconds", "",
+					"Diff of a commit against its first parent.");
+	private static final Metrics.Histogram WALK_WAIT = Metrics.registry()
+			.histogram("gitrecommender_ingest_wait_seconds",
+					"stage=\"walk\"",
+					"Time a stage was blocked on the next one (walk) or "
+							+ "the one before (apply, the DB writer).");
+	private static final Metrics.Histogram APPLY_WAIT = Metrics.registry()
+			.histogram("gitrecommender_ingest_wait_seconds",
+					"stage=\"apply\"", "");
+	private static final Metrics.Histogram SYNC = Metrics.registry()
+			.histogram("gitrecommender_db_sync_seconds", "",
+					"Journal sync, waiting for a finished compaction.");
+	private static final Metrics.Histogram CHECKPOINT = Metrics.registry()
+			.histogram("gitrecommender_db_checkpoint_seconds",
+					"kind=\"background\"",
+					"Checkpoints, until written (save) or started "
+							+ "(background).");
+	private static final Metrics.Histogram SAVE = Metrics.registry()
+			.histogram("gitrecommender_db_checkpoint_seconds",
+					"kind=\"save\"", "");
+
+	// counters of a running update, read from other threads to report on it
+	public static class Progress {
+		private final AtomicLong walked = new AtomicLong();
+		private final AtomicLong diffed = new AtomicLong();
+		private final AtomicLong imported = new AtomicLong();
+		private volatile String stage = "waiting";
+		private volatile long start = 0;
+		private volatile long end = 0;
+
+		// waiting, ingesting, indexing (writing the snapshot) or done
+		public String stage() {
+			return stage;
+		}
+
+		// commits found in the history, diffed and in the DB so far
+		public long walked() {
+			return walked.get();
+		}
+
+		public long diffed() {
+			return diffed.get();
+		}
+
+		public long imported() {
+			return imported.get();
+		}
+
+		public long elapsedMillis() {
+			if (start == 0)
+				return 0;
+			return (end == 0 ? System.currentTimeMillis() : end) - start;
+		}
+
+		public double commitsPerSecond() {
+			long elapsed = elapsedMillis();
+			return elapsed == 0 ? 0 : imported() * 1000.0 / elapsed;
+		}
+	}
+
 	public static void main(String[] args) throws Exception {
 
 		if (args.length == 0) {
@@ -50,8 +134,34 @@ public class UpdateLog {
 			System.exit(-1);
 		}
 
-		File gitDir = new File(args[0]);
-		File dbDir = new File(args[1]);
+		update(new File(args[0]), new File(args[1]), new Progress());
+	}
+
+	// where the commits of an update go, oldest first. Ids are asked for from
+	// the diff threads, commits come in order from a single thread
+	interface Sink {
+		int idAuthor(String author) throws IOException;
+
+		int idFile(String file) throws IOException;
+
+		// num counts the commits of this update, from 1
+		void commit(long num, String commit, int author, List<Integer> files)
+				throws IOException;
+	}
+
+	// imports the commits not in the DB yet, returns how many
+	public static long update(File gitDir, File dbDir, Progress progress)
+			throws Exception {
+		return update(gitDir, dbDir, progress, new BitSet());
+	}
+
+	// as above, setting the ids of the authors of the new commits in
+	// changedAuthors
+	public static long update(File gitDir, File dbDir,
+			final Progress progress, final BitSet changedAuthors)
+			throws Exception {
+		progress.start = System.currentTimeMillis();
+		progress.stage = "ingesting";
 
 		final DB db = new DB(dbDir);
 
@@ -64,123 +174,306 @@ public class UpdateLog {
 				.findGitDir() // scan up the file system tree
 				.build();
 
-		final Git git = new Git(repository);
-		Iterable<RevCommit> log = git.log().call();
+		final long start = System.currentTimeMillis();
 
-		// go through all commits and process them in reverse order
-		final List<RevCommit> allCommits = new ArrayList<RevCommit>();
+		long commitNum = ingest(repository, db.lastCommit(), new Sink() {
+			public int idAuthor(String author) throws IOException {
+				return db.idAuthor(author);
+			}
 
-		int newCommits = 0;
-		boolean seen = false;
-		for (RevCommit commit : log) {
-			String name = commit.name();
-			if (db.lastCommit().equals(name)) {
-				seen = true;
+			public int idFile(String file) throws IOException {
+				return db.idFile(file);
 			}
-			if (!seen)
-				newCommits++;
 
-			allCommits.add(commit);
-		}
-		System.out.println("Found " + allCommits.size() + " commits ("
-				+ newCommits + " new).");
-
-		int commitNum = 0;
-		List<Integer> files = new ArrayList<Integer>();
-                long start = System.currentTimeMillis();
-                
-		int cpus = Runtime.getRuntime().availableProcessors();
-		ExecutorService threadPool = Executors.newFixedThreadPool(cpus);
-
-                final AtomicInteger runningTasks = new AtomicInteger(0);
-                
-		for (int i = newCommits - 1; i >= 0; i--) {
-                    commitNum++;
-                    
-                    if (commitNum % 1000 == 0) {
-                        while(runningTasks.get() > 0){
-				Thread.sleep(100);
-				continue;
+			public void commit(long num, String commit, int author,
+					List<Integer> files) throws IOException {
+				db.observeCommit(commit, author, files);
+				changedAuthors.set(author);
+				if (num % 1000 == 0) {
+					long end = System.currentTimeMillis();
+					System.out.println("Processed " + num + " commits in "
+							+ ((end - start) / 1000) + " secs.");
+					// the journal has every commit, compaction into the DB
+					// files happens in the background
+					long syncStart = System.nanoTime();
+					db.sync();
+					SYNC.observeSince(syncStart);
+					if (num % 10000 == 0) {
+						long checkpointStart = System.nanoTime();
+						db.checkpoint();
+						CHECKPOINT.observeSince(checkpointStart);
+					}
+				}
 			}
-                        long end = System.currentTimeMillis();
-                        System.out.println("Processed " + commitNum + " commits out of " + newCommits + " in " + ( (end - start) / 1000 ) + " secs.");
-                        if (commitNum % 10000 == 0) {
-                            synchronized(db){
-                                db.save();
-                            }
-                        }
-                    }
-                    final int commitIdx = i;
-                    
-                    runningTasks.incrementAndGet();
-                    threadPool.submit(new Runnable() {
-                            public void run() {
-                                try {
-                                    RevCommit commit = allCommits.get(commitIdx);
-
-                                    List<String> fileNames = new ArrayList<String>(); // TODO: move to threadlocal
-
-                                    if (commitIdx < allCommits.size() - 1) {
-                                        AbstractTreeIterator oldTreeParser = prepareTreeParser(
-                                                                                               repository, allCommits.get(commitIdx + 1));
-                                        AbstractTreeIterator newTreeParser = prepareTreeParser(
-                                                                                               repository, commit);
-                                        // then the procelain diff-command returns a list of diff entries
-                                        List<DiffEntry> diff = git.diff().setOldTree(oldTreeParser)
-                                            .setNewTree(newTreeParser).call();
-                                        for (DiffEntry entry : diff) {
-                                            // System.out.println("\tFile: " + entry.getNewPath());
-                                            String file = entry.getNewPath();
-                                            fileNames.add(file);
-                                        }
-                                    }
-                                    synchronized(db){
-                                        String author = commit.getAuthorIdent().getName();
-                                        int authorId = db.idAuthor(author);
-                                        List<Integer> files = new ArrayList<Integer>(fileNames.size()); // TODO: move to threadlocal
-                                        for(String file : fileNames)
-                                            files.add(db.idFile(file));
-                                        
-                                        db.observeCommit(commit.name(), authorId, files);
-                                    }
-                                } catch (Exception exc) {
-                                    exc.printStackTrace();
-                                }
-
-                                runningTasks.decrementAndGet();
-                            }
+		}, progress);
+
+		progress.stage = "indexing";
+		long saveStart = System.nanoTime();
+		db.save();
+		SAVE.observeSince(saveStart);
+		db.close();
+		repository.close();
+		long end = System.currentTimeMillis();
+		progress.end = end;
+		progress.stage = "done";
+		System.out.println("Imported " + commitNum + " new commits.");
+		System.out.println("Import took: " + ((end - start) / 1000) + " secs.");
+		return commitNum;
+	}
+
+	// walks, diffs and hands to the sink the commits after lastCommit (all
+	// of them if null or unknown), returns how many
+	static long ingest(final Repository repository, final String lastCommit,
+			final Sink sink, final Progress progress) throws Exception {
+		final Semaphore window = new Semaphore(WINDOW);
+		final BlockingQueue<Task> toDiff = new ArrayBlockingQueue<Task>(WINDOW);
+		// bounded by the window too
+		final BlockingQueue<Result> diffed = new LinkedBlockingQueue<Result>();
+
+		final int cpus = Runtime.getRuntime().availableProcessors();
+		ExecutorService threadPool = Executors.newFixedThreadPool(cpus + 1);
+
+		threadPool.submit(new Runnable() {
+			public void run() {
+				long seq = 0;
+				Exception error = null;
+				try {
+					seq = walk(repository, lastCommit, window, toDiff,
+							progress);
+				} catch (Exception e) {
+					error = e;
+				}
+				try {
+					diffed.put(new Result(seq, null, 0, null, error));
+					for (int i = 0; i < cpus; i++)
+						toDiff.put(Task.END);
+				} catch (InterruptedException e) {
+					// shutting down
+				}
+			}
+		});
+
+		for (int i = 0; i < cpus; i++)
+			threadPool.submit(new Runnable() {
+				public void run() {
+					TreeDiffer differ = new TreeDiffer(repository, false);
+					List<String> paths = new ArrayList<String>();
+					try {
+						Task task = toDiff.take();
+						while (task != Task.END) {
+							long diffStart = System.nanoTime();
+							Result result = diff(differ, paths, sink, task);
+							DIFF.observeSince(diffStart);
+							diffed.put(result);
+							progress.diffed.incrementAndGet();
+							task = toDiff.take();
+						}
+					} catch (InterruptedException e) {
+						// shutting down
+					} finally {
+						differ.release();
+					}
+				}
 			});
 
+		// diffs finish out of order, they wait here for the ones before them
+		Map<Long, Result> pending = new HashMap<Long, Result>();
+		long commitNum = 0;
+		try {
+			while (true) {
+				Result result = pending.remove(commitNum);
+				if (result == null) {
+					result = diffed.poll();
+					if (result == null) {
+						long waitStart = System.nanoTime();
+						result = diffed.take();
+						APPLY_WAIT.observeSince(waitStart);
+					}
+					if (result.error != null)
+						throw result.error;
+					pending.put(result.seq, result);
+					continue;
+				}
+				if (result.commit == null)
+					break; // end of the walk
+
+				commitNum++;
+				sink.commit(commitNum, result.commit, result.author,
+						result.files);
+				window.release();
+				progress.imported.incrementAndGet();
+				COMMITS.inc();
+			}
+		} finally {
+			threadPool.shutdownNow();
 		}
+		return commitNum;
+	}
 
-                while(runningTasks.get() > 0){
-                    Thread.sleep(100);
-                    continue;
-                }
-                synchronized(db){
-                    db.save();
-                }
-		threadPool.shutdown();
-		repository.close();
-                long end = System.currentTimeMillis();
-                System.out.println("Import took: " + ( (end - start) / 1000 ) + " secs.");
+	// queues the commits after the last one in the DB, parents first,
+	// returns how many
+	private static long walk(Repository repository, String lastCommit,
+			Semaphore window, BlockingQueue<Task> toDiff, Progress progress)
+			throws IOException, InterruptedException {
+		File ids = File.createTempFile("updatelog", ".ids");
+		try {
+			long count = listNewCommits(repository, lastCommit, ids, progress);
+			return queueOldestFirst(repository, ids, count, window, toDiff);
+		} finally {
+			ids.delete();
+		}
 	}
 
-	private static AbstractTreeIterator prepareTreeParser(
-			Repository repository, RevCommit commit) throws IOException,
-			MissingObjectException, IncorrectObjectTypeException {
-		// from the commit we can build the tree which allows us to construct
-		// the TreeParser
+	// writes the ids of the commits after the last one in the DB to a file,
+	// children before their parents, returns how many. The walk holds a
+	// header for each commit until it is released here, before any diff
+	private static long listNewCommits(Repository repository,
+			String lastCommit, File ids, Progress progress) throws IOException {
 		RevWalk walk = new RevWalk(repository);
-		RevTree tree = walk.parseTree(commit.getTree().getId());
-		CanonicalTreeParser result = new CanonicalTreeParser();
-		ObjectReader reader = repository.newObjectReader();
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(ids));
+		try {
+			walk.setRetainBody(false);
+			walk.sort(RevSort.TOPO);
+			ObjectId head = repository.resolve(Constants.HEAD);
+			if (head == null)
+				return 0; // empty repository
+			walk.markStart(walk.parseCommit(head));
+			ObjectId last = lastCommit == null ? null : repository
+					.resolve(lastCommit);
+			if (last != null) {
+				try {
+					walk.markUninteresting(walk.parseCommit(last));
+				} catch (MissingObjectException e) {
+					// history was rewritten, start over
+				}
+			}
+
+			byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+			long count = 0;
+			for (RevCommit commit : walk) {
+				commit.copyRawTo(raw, 0);
+				out.write(raw);
+				count++;
+				progress.walked.incrementAndGet();
+			}
+			return count;
+		} finally {
+			out.close();
+			walk.release();
+		}
+	}
+
+	// reads the ids back from the end of the file, WINDOW at a time, with a
+	// new RevWalk for each block so parsed commits don't pile up
+	private static long queueOldestFirst(Repository repository, File ids,
+			long count, Semaphore window, BlockingQueue<Task> toDiff)
+			throws IOException, InterruptedException {
+		RandomAccessFile in = new RandomAccessFile(ids, "r");
 		try {
-			result.reset(reader, tree.getId());
+			byte[] block = new byte[WINDOW * Constants.OBJECT_ID_LENGTH];
+			long seq = 0;
+			for (long blockEnd = count; blockEnd > 0; blockEnd -= WINDOW) {
+				int size = (int) Math.min(WINDOW, blockEnd);
+				in.seek((blockEnd - size) * Constants.OBJECT_ID_LENGTH);
+				in.readFully(block, 0, size * Constants.OBJECT_ID_LENGTH);
+
+				RevWalk walk = new RevWalk(repository);
+				try {
+					walk.setRetainBody(false);
+					ObjectReader reader = walk.getObjectReader();
+					for (int i = size - 1; i >= 0; i--) {
+						RevCommit commit = walk.parseCommit(ObjectId.fromRaw(
+								block, i * Constants.OBJECT_ID_LENGTH));
+						ObjectId parentTree = null;
+						if (commit.getParentCount() > 0)
+							parentTree = walk.parseCommit(commit.getParent(0))
+									.getTree().copy();
+						if (!window.tryAcquire()) {
+							long waitStart = System.nanoTime();
+							window.acquire();
+							WALK_WAIT.observeSince(waitStart);
+						}
+						toDiff.put(new Task(seq++, commit.copy(), commit
+								.getTree().copy(), parentTree, author(reader,
+								commit)));
+					}
+				} finally {
+					walk.release();
+				}
+			}
+			return seq;
 		} finally {
-			reader.release();
+			in.close();
+		}
+	}
+
+	// from the raw commit, the walk doesn't keep the bodies
+	private static String author(ObjectReader reader, RevCommit commit)
+			throws IOException {
+		byte[] raw = reader.open(commit, Constants.OBJ_COMMIT)
+				.getCachedBytes();
+		int author = RawParseUtils.author(raw, 0);
+		if (author < 0)
+			return "";
+		PersonIdent ident = RawParseUtils.parsePersonIdent(raw, author);
+		return ident == null ? "" : ident.getName();
+	}
+
+	private static Result diff(TreeDiffer differ, List<String> paths,
+			Sink sink, Task task) {
+		try {
+			paths.clear();
+			// root commits count, with no files
+			if (task.parentTree != null)
+				differ.changedPaths(task.parentTree, task.tree, paths);
+			int authorId = sink.idAuthor(task.author);
+			List<Integer> files = new ArrayList<Integer>(paths.size());
+			for (String file : paths)
+				files.add(sink.idFile(file));
+			return new Result(task.seq, task.commit.name(), authorId, files,
+					null);
+		} catch (Exception e) {
+			return new Result(task.seq, null, 0, null, new IOException(
+					"Cannot diff " + task.commit.name(), e));
+		}
+	}
+
+	// ids only, the RevWalk that parsed the commit is gone by the time
+	// it is diffed
+	private static class Task {
+		static final Task END = new Task(-1, null, null, null, null);
+
+		final long seq;
+		final ObjectId commit;
+		final ObjectId tree;
+		final ObjectId parentTree; // null for root commits
+		final String author;
+
+		Task(long seq, ObjectId commit, ObjectId tree, ObjectId parentTree,
+				String author) {
+			this.seq = seq;
+			this.commit = commit;
+			this.tree = tree;
+			this.parentTree = parentTree;
+			this.author = author;
+		}
+	}
+
+	// a null commit marks the end of the walk
+	private static class Result {
+		final long seq;
+		final String commit;
+		final int author;
+		final List<Integer> files;
+		final Exception error;
+
+		Result(long seq, String commit, int author, List<Integer> files,
+				Exception error) {
+			this.seq = seq;
+			this.commit = commit;
+			this.author = author;
+			this.files = files;
+			this.error = error;
 		}
-		walk.dispose();
-		return result;
 	}
 }
@@ -18,49 +18,77 @@
 
 package net.aprendizajengrande.gitrecommender.api;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
+import net.aprendizajengrande.gitrecommender.Metrics;
 import net.aprendizajengrande.gitrecommender.Recommend;
-import net.aprendizajengrande.gitrecommender.UpdateLog;
+import net.aprendizajengrande.gitrecommender.reco.ItemBasedRecommender.Similarity;
+import net.aprendizajengrande.gitrecommender.reco.Recommendation;
 
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationSupport;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.ServletHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
-import org.eclipse.jgit.api.CloneCommand;
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
+import org.json.JSONWriter;
 
 /**
- * Simple API for gitrecommender. This implementation is just intended for a
- * single user and small repos. A DB backend will be need for serious usage.
+ * Simple API for gitrecommender. This implementation is intended for small
+ * repos. Requests answered from the caches are answered right away, the rest
+ * are suspended (Jetty continuations) until one of a fixed set of workers,
+ * one per core, is done with them. Requests beyond those waiting for a
+ * worker get a 503 with a Retry-After header. A repository is cloned and indexed in the
+ * background after its first request, until then requests for it get the
+ * onboarding job (see below). Tracked repositories are updated in the
+ * background (daily by default), requests are answered from the previous
+ * index meanwhile. The models of the repositories queried lately are kept in
+ * memory (a quarter of the heap by default), as well as the latest
+ * recommendations for each index (for up to 10 minutes). A DB backend will
+ * be need for serious usage.
  * 
  * POST /recommend JSON object:
  * 
- * { "repository" : <repo URL>, "files" : [ "file paths" ] }
+ * { "repository" : <repo URL>, "files" : [ "file paths" ], "limit" : <number
+ * of recommendations, optional, 10 by default> }
+ * 
+ * (at most 1MB by default)
  * 
  * where a file URL contains the branch, for example:
  * 
@@ -84,6 +112,28 @@ import org.json.JSONTokener;
  * 
  * { "error" : { "msg":"error message", ... } }
  * 
+ * POST /recommend/batch takes several file lists for one repository, scored
+ * in parallel:
+ * 
+ * { "repository" : <repo URL>, "queries" : [ [ "file paths" ], ... ],
+ * "limit" : <optional> }
+ * 
+ * and answers with one list per query, in the same order: {
+ * "recommendations" : [ [ { "file" : ..., "score" : ... }, ... ], ... ] }
+ * 
+ * Requests for a repository not indexed yet answer 202 with its onboarding
+ * job, also at GET /jobs/<job id> (the Location header):
+ * 
+ * { "job" : "1", "repository" : <repo URL>, "state" :
+ * "queued|cloning|ingesting|indexing|done|failed", "clone" : { "task" :
+ * "Receiving objects", "done" : 120, "total" : 300 }, "commits" : { "walked"
+ * : 5000, "diffed" : 4000, "imported" : 3900, "perSecond" : 1300 },
+ * "elapsedSeconds" : 20, "error" : <if failed> }
+ * 
+ * GET /metrics has the request latencies, cache hit counts, queue depth,
+ * model load times and ingestion counters of the server in the Prometheus
+ * text format.
+ * 
  * @author pablo
  * 
  */
@@ -113,197 +163,626 @@ public class GitRecommenderServer implements Servlet {
 		response.getWriter().println(obj.toString());
 	}
 
-	private void error(ServletResponse response, Exception e)
+	// the request is malformed, sending it again won't help
+	private void badRequest(ServletResponse response, String msg)
+			throws IOException {
+		((HttpServletResponse) response)
+				.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+		error(response, msg);
+	}
+
+	// the stack trace goes to the server log, the client gets the message
+	private void serverError(ServletResponse response, Exception e)
 			throws IOException {
+		e.printStackTrace();
+		((HttpServletResponse) response)
+				.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 		error(response, e.toString());
 	}
 
+	// the task in a request body, null for what it doesn't have
+	private static class Task {
+		String repository;
+		// without the branch
+		List<String> files;
+		// the file lists of a batch
+		List<List<String>> queries;
+		int limit = Recommend.HOW_MANY;
+	}
+
+	// what a request is answered with once its work is done
+	private static class Answer {
+		final boolean batch;
+		// System.nanoTime() when the request came in
+		final long start;
+		List<Recommendation> ranked;
+		List<List<Recommendation>> rankedLists;
+		Exception error;
+		// no room in the work queue
+		boolean rejected;
+
+		Answer(boolean batch, long start) {
+			this.batch = batch;
+			this.start = start;
+		}
+	}
+
 	public void service(ServletRequest request, ServletResponse response)
 			throws ServletException, IOException {
-		StringBuilder task = new StringBuilder();
-		{
-			InputStream is = request.getInputStream();
-			BufferedReader br = new BufferedReader(new InputStreamReader(is));
-			try {
-				String line = br.readLine();
-				while (line != null) {
-					task.append(line).append('\n');
-					line = br.readLine();
+		Continuation continuation = ContinuationSupport
+				.getContinuation(request);
+		// dispatched again once the work is done or timed out
+		Answer done = (Answer) continuation.getAttribute(ANSWER);
+		if (done != null) {
+			answer(done, response);
+			return;
+		}
+		if (continuation.isExpired()) {
+			TIMED_OUT.inc();
+			unavailable(response, "Timed out");
+			return;
+		}
+		long start = System.nanoTime();
+
+		String path = ((HttpServletRequest) request).getServletPath();
+		if (path.equals("/metrics")) {
+			response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+			Metrics.registry().write(response.getWriter());
+			return;
+		}
+		if (path.equals("/jobs")) {
+			job(((HttpServletRequest) request).getPathInfo(),
+					(HttpServletResponse) response);
+			return;
+		}
+		boolean batch = path.equals("/recommend/batch");
+		if (request.getContentLength() > maxBody) {
+			badRequest(response, "Request larger than " + maxBody
+					+ " bytes");
+			return;
+		}
+		Task task;
+		try {
+			task = readTask(new JSONTokener(new InputStreamReader(
+					new BoundedInputStream(request.getInputStream(), maxBody),
+					UTF8)));
+		} catch (JSONException e) {
+			// errors reading the body come wrapped
+			if (e.getCause() instanceof IOException)
+				badRequest(response, e.getCause().getMessage());
+			else
+				badRequest(response, e.toString());
+			return;
+		}
+		if (task.repository == null) {
+			badRequest(response, "Expected: repository");
+			return;
+		}
+		if (batch ? task.queries == null : task.files == null) {
+			badRequest(response, "Expected: " + (batch ? "queries" : "files"));
+			return;
+		}
+		if (task.limit < 1 || task.limit > MAX_LIMIT) {
+			badRequest(response, "Expected: limit between 1 and "
+					+ MAX_LIMIT);
+			return;
+		}
+
+		if (batch)
+			System.err.println("Got: " + task.repository + " for "
+					+ task.queries.size() + " queries");
+		else
+			System.err.println("Got: " + task.repository + " for "
+					+ task.files.size() + " files");
+
+		TrackedRepo repo;
+		try {
+			repo = repo(task.repository);
+		} catch (IOException e) {
+			serverError(response, e);
+			return;
+		}
+		if (!repo.indexed()) {
+			// nothing to answer with yet, the client polls the job
+			Onboarding.Job job = onboarding.start(repo);
+			HttpServletResponse http = (HttpServletResponse) response;
+			http.setStatus(HttpServletResponse.SC_ACCEPTED);
+			http.setHeader("Location", "/jobs/" + job.id);
+			writeJob(job, response);
+			System.err.println("Send: job " + job.id + " " + job.state());
+			return;
+		}
+		// answered from the current index, a newer one is on its way
+		if (scheduler != null && scheduler.stale(repo))
+			scheduler.refresh(repo);
+
+		// answers already cached don't wait for a worker
+		Work work = new Work(continuation, repo, task, batch, start);
+		if (!batch) {
+			ModelCache.Model model = models.peek(repo);
+			if (model != null) {
+				work.recommend = model.recommend;
+				work.seeds = model.recommend.seeds(task.files);
+				work.key = new ResultCache.Key(repo.url, model.recommend.db()
+						.lastCommit(), work.seeds, task.limit);
+				Answer answer = new Answer(false, start);
+				answer.ranked = results.get(work.key);
+				if (answer.ranked != null) {
+					answer(answer, response);
+					return;
 				}
-			} catch (IOException e) {
-				error(response, e);
-				return;
 			}
-			br.close();
 		}
-		String repositoryStr;
-		String[] filesStrArr;
+
+		// the Jetty thread is released until the work is done
+		continuation.setTimeout(TIMEOUT_MILLIS);
+		continuation.suspend();
 		try {
-			Object maybeObj = new JSONTokener(task.toString()).nextValue();
-			if (!(maybeObj instanceof JSONObject)) {
-				error(response, "Expected: JSON object");
-				return;
+			workers.execute(work);
+		} catch (RejectedExecutionException e) {
+			Answer answer = new Answer(batch, start);
+			answer.rejected = true;
+			continuation.setAttribute(ANSWER, answer);
+			continuation.resume();
+		}
+	}
+
+	// the recommendations of a suspended request
+	private static class Work implements Runnable {
+		final Continuation continuation;
+		final TrackedRepo repo;
+		final Task task;
+		final boolean batch;
+		final long start;
+		// known if the model was loaded, the cache was checked then
+		Recommend recommend;
+		int[] seeds;
+		ResultCache.Key key;
+
+		Work(Continuation continuation, TrackedRepo repo, Task task,
+				boolean batch, long start) {
+			this.continuation = continuation;
+			this.repo = repo;
+			this.task = task;
+			this.batch = batch;
+			this.start = start;
+		}
+
+		public void run() {
+			Answer answer = new Answer(batch, start);
+			try {
+				if (batch)
+					answer.rankedLists = recommendAll(repo,
+							models.get(repo).recommend, task.queries,
+							task.limit);
+				else if (key == null)
+					answer.ranked = recommend(repo,
+							models.get(repo).recommend, task.files,
+							task.limit);
+				else
+					answer.ranked = compute(recommend, seeds, key);
+			} catch (Exception e) {
+				answer.error = e;
+			}
+			continuation.setAttribute(ANSWER, answer);
+			try {
+				continuation.resume();
+			} catch (IllegalStateException e) {
+				// timed out and answered already
+			}
+		}
+	}
+
+	private void answer(Answer answer, ServletResponse response)
+			throws IOException {
+		if (answer.rejected) {
+			REJECTED.inc();
+			unavailable(response, "Too many requests");
+			return;
+		}
+		if (answer.error != null) {
+			serverError(response, answer.error);
+			return;
+		}
+		response.setContentType("application/json");
+		PrintWriter out = response.getWriter();
+		JSONWriter json = new JSONWriter(out);
+		String sent;
+		try {
+			if (answer.batch) {
+				json.object().key("recommendations").array();
+				for (List<Recommendation> recos : answer.rankedLists)
+					write(json, recos);
+				json.endArray().endObject();
+				sent = answer.rankedLists.size() + " lists of recommendations";
 			} else {
-				JSONObject obj = (JSONObject) maybeObj;
-				if (!obj.has("repository")) {
-					error(response, "Expected: repository");
-					return;
-				}
-				if (!obj.has("files")) {
-					error(response, "Expected: files");
-					return;
-				}
-				repositoryStr = obj.getString("repository");
-				JSONArray filesArr = obj.getJSONArray("files");
-				filesStrArr = new String[filesArr.length()];
-				for (int i = 0; i < filesStrArr.length; i++) {
-					filesStrArr[i] = filesArr.getString(i);
-				}
+				json.object().key("recommendation");
+				write(json, answer.ranked);
+				json.endObject();
+				sent = answer.ranked.size() + " recommendations";
 			}
 		} catch (JSONException e) {
-			error(response, e);
+			serverError(response, e);
 			return;
 		}
+		out.println();
+		(answer.batch ? BATCH_LATENCY : LATENCY).observeSince(answer.start);
+
+		System.err.println("Send: " + sent + " (" + models + ", " + results
+				+ ")");
+	}
 
-		System.err.println("Got: " + repositoryStr + " for "
-				+ java.util.Arrays.asList(filesStrArr));
+	// the request is shed, the client should try again in a second
+	private void unavailable(ServletResponse response, String msg)
+			throws IOException {
+		HttpServletResponse http = (HttpServletResponse) response;
+		http.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		http.setHeader("Retry-After", "1");
+		error(response, msg);
+	}
 
-		synchronized (lock) {
-			try {
-				// check whether the repo already has a folder
-				if (!repoToFolder.containsKey(repositoryStr)) {
-					int id = repoToFolder.size();
-					File repoDir = new File(String.valueOf(id));
-					repoDir.mkdirs();
-					File dbDir = new File(repoDir, "db");
-					dbDir.mkdirs();
-					File gitDir = new File(repoDir, "git");
+	// GET /jobs/<id>
+	private void job(String pathInfo, HttpServletResponse response)
+			throws IOException {
+		String id = pathInfo == null ? "" : pathInfo.substring(1);
+		Onboarding.Job job = onboarding.get(id);
+		if (job == null) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			error(response, "No such job: " + id);
+			return;
+		}
+		writeJob(job, response);
+	}
+
+	private static void writeJob(Onboarding.Job job, ServletResponse response)
+			throws IOException {
+		response.setContentType("application/json");
+		PrintWriter out = response.getWriter();
+		job.write(new JSONWriter(out));
+		out.println();
+	}
 
-					CloneCommand clone = Git.cloneRepository();
-					clone.setBare(true);
-					clone.setCloneAllBranches(true);
-					clone.setDirectory(gitDir).setURI(repositoryStr);
-					clone.call();
+	private static List<Recommendation> recommend(TrackedRepo repo,
+			Recommend recommend, List<String> files, int limit) {
+		int[] seedFiles = recommend.seeds(files);
+		ResultCache.Key key = new ResultCache.Key(repo.url, recommend.db()
+				.lastCommit(), seedFiles, limit);
+		List<Recommendation> ranked = results.get(key);
+		if (ranked == null)
+			ranked = compute(recommend, seedFiles, key);
+		return ranked;
+	}
 
-					setTimeStamp(repoDir, 0L);
+	private static List<Recommendation> compute(Recommend recommend,
+			int[] seedFiles, ResultCache.Key key) {
+		List<Recommendation> ranked = recommend.named(recommend.recommend(
+				seedFiles, key.howMany));
+		results.put(key, ranked);
+		return ranked;
+	}
 
-					repoToFolder.put(repositoryStr, repoDir);
-					save();
+	// the queries of a batch split among the scorer threads, the results in
+	// the same order
+	private static List<List<Recommendation>> recommendAll(
+			final TrackedRepo repo,
+			final Recommend recommend, final List<List<String>> queries,
+			final int limit) throws InterruptedException, ExecutionException {
+		int chunks = Math.min(queries.size(), SCORERS);
+		final int chunkSize = chunks == 0 ? 0 : (queries.size() + chunks - 1)
+				/ chunks;
+		List<Future<List<List<Recommendation>>>> futures = new ArrayList<Future<List<List<Recommendation>>>>();
+		for (int start = 0; start < queries.size(); start += chunkSize) {
+			final int from = start;
+			futures.add(scorers.submit(new Callable<List<List<Recommendation>>>() {
+				public List<List<Recommendation>> call() {
+					int to = Math.min(queries.size(), from + chunkSize);
+					List<List<Recommendation>> result = new ArrayList<List<Recommendation>>(
+							to - from);
+					for (int i = from; i < to; i++)
+						result.add(recommend(repo, recommend, queries.get(i),
+								limit));
+					return result;
 				}
+			}));
+		}
+		List<List<Recommendation>> result = new ArrayList<List<Recommendation>>(
+				queries.size());
+		for (Future<List<List<Recommendation>>> future : futures)
+			result.addAll(future.get());
+		return result;
+	}
 
-				// check whether the repo has been updated today
-				File repoDir = repoToFolder.get(repositoryStr);
-				boolean updated = false;
-				long timestamp = getTimeStamp(repoDir);
-				updated = System.currentTimeMillis() - timestamp < 24 * 60 * 60 * 1000L;
-				if (!updated) {
-					File gitDir = new File(repoDir, "git");
-					File dbDir = new File(repoDir, "db");
+	private static void write(JSONWriter json, List<Recommendation> recos)
+			throws JSONException {
+		json.array();
+		for (Recommendation reco : recos)
+			json.object().key("file").value(reco.file()).key("score")
+					.value(reco.score()).endObject();
+		json.endArray();
+	}
 
-					// update repo
-					FileRepositoryBuilder builder = new FileRepositoryBuilder();
-					Repository repository = builder.setGitDir(gitDir)
-							.readEnvironment().findGitDir().build();
+	// reads { "repository" : ..., "files" : [ ... ], "queries" : [ [ ... ],
+	// ... ], "limit" : ... } token by token, the paths go straight into the
+	// task
+	private static Task readTask(JSONTokener tokener) throws JSONException {
+		if (tokener.nextClean() != '{')
+			throw tokener.syntaxError("Expected: JSON object");
+		Task task = new Task();
+		if (tokener.nextClean() == '}')
+			return task;
+		tokener.back();
+		while (true) {
+			Object key = tokener.nextValue();
+			if (tokener.nextClean() != ':')
+				throw tokener.syntaxError("Expected: ':' after " + key);
+			if ("repository".equals(key)) {
+				// not a name for a folder otherwise
+				Object repository = tokener.nextValue();
+				if (!(repository instanceof String))
+					throw tokener.syntaxError("Expected: repository string");
+				task.repository = (String) repository;
+			} else if ("files".equals(key)) {
+				task.files = new ArrayList<String>();
+				readFiles(tokener, task.files);
+			} else if ("queries".equals(key)) {
+				if (tokener.nextClean() != '[')
+					throw tokener.syntaxError("Expected: queries array");
+				task.queries = new ArrayList<List<String>>();
+				if (tokener.nextClean() != ']') {
+					tokener.back();
+					do {
+						List<String> files = new ArrayList<String>();
+						readFiles(tokener, files);
+						task.queries.add(files);
+					} while (tokener.nextClean() == ',');
+					tokener.back();
+					if (tokener.nextClean() != ']')
+						throw tokener.syntaxError("Expected: ',' or ']'");
+				}
+			} else if ("limit".equals(key)) {
+				Object limit = tokener.nextValue();
+				if (!(limit instanceof Number))
+					throw tokener.syntaxError("Expected: limit number");
+				task.limit = ((Number) limit).intValue();
+			} else
+				tokener.nextValue(); // ignored
+
+			char next = tokener.nextClean();
+			if (next == '}')
+				return task;
+			if (next != ',')
+				throw tokener.syntaxError("Expected: ',' or '}'");
+		}
+	}
 
-					Git git = new Git(repository);
-					git.pull();
+	// [ "branch/path", ... ], the paths without the branch
+	private static void readFiles(JSONTokener tokener, List<String> files)
+			throws JSONException {
+		if (tokener.nextClean() != '[')
+			throw tokener.syntaxError("Expected: files array");
+		if (tokener.nextClean() == ']')
+			return;
+		tokener.back();
+		do {
+			Object file = tokener.nextValue();
+			if (!(file instanceof String))
+				throw tokener.syntaxError("Expected: file path string");
+			files.add(((String) file).replaceFirst("[^/]+/", ""));
+		} while (tokener.nextClean() == ',');
+		tokener.back();
+		if (tokener.nextClean() != ']')
+			throw tokener.syntaxError("Expected: ',' or ']'");
+	}
 
-					// call to UpdateLog
-					UpdateLog.main(new String[] { gitDir.getAbsolutePath(),
-							dbDir.getAbsolutePath() });
+	// fails once more than max bytes are read
+	private static class BoundedInputStream extends FilterInputStream {
+		private final long max;
+		private long count = 0;
 
-					setTimeStamp(repoDir);
-				}
+		BoundedInputStream(InputStream in, long max) {
+			super(in);
+			this.max = max;
+		}
 
-				// call to Recommend, get recos
-				File dbDir = new File(repoDir, "db");
-				File tmpInput = File.createTempFile("gitrecommender-input",
-						"tmp");
-				File tmpOutput = File.createTempFile("gitrecommender-output",
-						"");
-				File tmpOutputDir = new File(tmpOutput.getAbsolutePath()
-						+ ".dir");
-				tmpOutputDir.mkdirs();
-				File outputFile = new File(repoDir, "recos");
-
-				File taskFile = new File(repoDir, "task");
-				PrintWriter pw = new PrintWriter(new FileWriter(taskFile));
-				for (String fileStr : filesStrArr)
-					pw.println(fileStr.replaceFirst("[^/]+/", ""));
-				pw.close();
-
-				deleteTemp();
-				Recommend.main(new String[] { dbDir.getAbsolutePath(),
-						tmpInput.toURI().toString(),
-						tmpOutputDir.toURI().toString(),
-						outputFile.getAbsolutePath(),
-						taskFile.getAbsolutePath() });
-
-				JSONObject result = new JSONObject();
-				JSONArray recos = new JSONArray();
-
-				// fill in recos
-				BufferedReader br = new BufferedReader(new FileReader(
-						outputFile));
-				String line = br.readLine();
-				while (line != null) {
-					String[] parts = line.split("\\t");
-					JSONObject entry = new JSONObject();
-					entry.put("file", parts[1]);
-					entry.put("score", Float.parseFloat(parts[2]));
-					recos.put(entry);
-					line = br.readLine();
-				}
-				br.close();
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0)
+				count(1);
+			return b;
+		}
 
-				result.put("recommendation", recos);
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0)
+				count(read);
+			return read;
+		}
 
-				System.err.println("Send: " + result.toString());
+		private void count(int read) throws IOException {
+			count += read;
+			if (count > max)
+				throw new IOException("Request larger than " + max + " bytes");
+		}
+	}
 
-				response.setContentType("application/json");
-				response.getWriter().println(result.toString());
-			} catch (Exception e) {
-				e.printStackTrace(response.getWriter());
+	// the entry for a repository, its folder is assigned on the first request
+	private static TrackedRepo repo(String url) throws IOException {
+		TrackedRepo repo = repos.get(url);
+		if (repo != null)
+			return repo;
+		synchronized (repoToFolder) {
+			repo = repos.get(url);
+			if (repo == null) {
+				File repoDir = repoToFolder.get(url);
+				if (repoDir == null) {
+					// skips the folders of clones that failed
+					int id = repoToFolder.size();
+					while (new File(String.valueOf(id)).exists())
+						id++;
+					repoDir = new File(String.valueOf(id));
+					repoDir.mkdirs();
+				}
+				repo = new TrackedRepo(url, repoDir);
+				repos.put(url, repo);
 			}
+			return repo;
 		}
 	}
 
-	private void deleteTemp() throws IOException {
-		File temp = new File("temp");
-		if (temp.exists()) {
-			// renaming it to avoid error-prone recursive deletion
-			temp.renameTo(new File(File.createTempFile("gitrecommender-tmp",
-					"", new File(".")).getAbsolutePath()
-					+ ".dir"));
+	// remembers the folder of a repository once it is indexed
+	private static void register(TrackedRepo repo) throws IOException {
+		synchronized (repoToFolder) {
+			if (!repoToFolder.containsKey(repo.url)) {
+				repoToFolder.put(repo.url, repo.dir);
+				save();
+			}
 		}
 	}
 
-	private void setTimeStamp(File repoDir, long i) throws IOException {
-		PrintWriter pw = new PrintWriter(new FileWriter(new File(repoDir,
-				"timestamp")));
-		pw.println(i);
-		pw.close();
-	}
+	private static final ConcurrentHashMap<String, TrackedRepo> repos = new ConcurrentHashMap<String, TrackedRepo>();
 
-	private void setTimeStamp(File repoDir) throws IOException {
-		setTimeStamp(repoDir, System.currentTimeMillis());
-	}
+	// null if not running from main()
+	private static RefreshScheduler scheduler;
+
+	private static Onboarding onboarding = onboarding(2);
+
+	private static ModelCache models = new ModelCache(Runtime.getRuntime()
+			.maxMemory() / 4, true, Similarity.COSINE);
 
-	private long getTimeStamp(File repoDir) throws IOException {
-		File timestampFile = new File(repoDir, "timestamp");
-		if (!timestampFile.exists())
-			return 0L;
-		BufferedReader br = new BufferedReader(new FileReader(timestampFile));
-		String line = br.readLine();
-		br.close();
-		if (line == null)
-			return 0L;
-		return Long.parseLong(line);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// most recommendations a request can ask for
+	private static final int MAX_LIMIT = 1000;
+
+	// batches are scored on one thread per core
+	private static final int SCORERS = Runtime.getRuntime()
+			.availableProcessors();
+
+	private static final ExecutorService scorers = Executors
+			.newFixedThreadPool(SCORERS, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "scorer-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	// requests waiting for a worker beyond these are shed
+	private static final int QUEUED_REQUESTS = 64;
+
+	private static final long TIMEOUT_MILLIS = 60 * 1000L;
+
+	private static final String ANSWER = "gitrecommender.answer";
+
+	// the work of the requests not answered from the caches
+	private static final ThreadPoolExecutor workers = new ThreadPoolExecutor(
+			SCORERS, SCORERS, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(QUEUED_REQUESTS),
+			new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "worker-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	private static final Metrics.Histogram LATENCY = Metrics.registry()
+			.histogram("gitrecommender_request_seconds",
+					"path=\"/recommend\"",
+					"Recommendation requests answered, from arrival.");
+	private static final Metrics.Histogram BATCH_LATENCY = Metrics
+			.registry().histogram("gitrecommender_request_seconds",
+					"path=\"/recommend/batch\"", "");
+	private static final Metrics.Counter REJECTED = Metrics.registry()
+			.counter("gitrecommender_requests_shed_total",
+					"reason=\"queue_full\"",
+					"Requests answered with a 503.");
+	private static final Metrics.Counter TIMED_OUT = Metrics.registry()
+			.counter("gitrecommender_requests_shed_total",
+					"reason=\"timeout\"", "");
+	static {
+		Metrics registry = Metrics.registry();
+		registry.gauge("gitrecommender_worker_queue_depth", "",
+				"Requests waiting for a worker.", new Metrics.Value() {
+					public double get() {
+						return workers.getQueue().size();
+					}
+				});
+		registry.gauge("gitrecommender_workers_busy", "",
+				"Workers computing recommendations.", new Metrics.Value() {
+					public double get() {
+						return workers.getActiveCount();
+					}
+				});
+		registry.counter("gitrecommender_model_cache_hits_total", "",
+				"Requests with the model of the repository in memory.",
+				new Metrics.Value() {
+					public double get() {
+						return models.hits();
+					}
+				});
+		registry.counter("gitrecommender_model_cache_misses_total", "",
+				"Requests that loaded the model of the repository.",
+				new Metrics.Value() {
+					public double get() {
+						return models.misses();
+					}
+				});
+		registry.counter("gitrecommender_model_cache_evictions_total", "",
+				"Models dropped to stay under the memory budget.",
+				new Metrics.Value() {
+					public double get() {
+						return models.evictions();
+					}
+				});
+		registry.counter("gitrecommender_model_updates_total", "",
+				"Item-based models updated after a refresh instead of built.",
+				new Metrics.Value() {
+					public double get() {
+						return models.updates();
+					}
+				});
+		registry.gauge("gitrecommender_model_cache_bytes", "",
+				"Estimated heap size of the models in memory.",
+				new Metrics.Value() {
+					public double get() {
+						return models.bytes();
+					}
+				});
+		registry.counter("gitrecommender_result_cache_hits_total", "",
+				"Recommendations answered from the result cache.",
+				new Metrics.Value() {
+					public double get() {
+						return results.hits();
+					}
+				});
+		registry.counter("gitrecommender_result_cache_misses_total", "",
+				"Recommendations computed.", new Metrics.Value() {
+					public double get() {
+						return results.misses();
+					}
+				});
+		registry.gauge("gitrecommender_result_cache_entries", "",
+				"Recommendations in the result cache.", new Metrics.Value() {
+					public double get() {
+						return results.size();
+					}
+				});
 	}
 
-	private static Object lock = new Object();
+	// largest request body accepted, in bytes
+	private static long maxBody = 1024 * 1024;
+
+	private static final ResultCache results = new ResultCache(10000,
+			10 * 60 * 1000L);
 
-	private static Map<String, File> repoToFolder = new HashMap<String, File>();
+	// repositories cloned so far, saved in apiDB, guards the folder
+	// assignment
+	private static final Map<String, File> repoToFolder = new HashMap<String, File>();
 
 	private static File apiDB = new File("api-db.ser");
 
@@ -312,11 +791,23 @@ public class GitRecommenderServer implements Servlet {
 		if (apiDB.exists()) {
 			ObjectInputStream ois = new ObjectInputStream(new FileInputStream(
 					apiDB));
-			repoToFolder = (Map<String, File>) ois.readObject();
+			repoToFolder.putAll((Map<String, File>) ois.readObject());
 			ois.close();
+			// refreshed from the start, not only after their next request
+			for (Map.Entry<String, File> entry : repoToFolder.entrySet())
+				repos.put(entry.getKey(), new TrackedRepo(entry.getKey(),
+						entry.getValue()));
 		}
 	}
 
+	private static Onboarding onboarding(int maxConcurrent) {
+		return new Onboarding(maxConcurrent, new Onboarding.Listener() {
+			public void onboarded(TrackedRepo repo) throws IOException {
+				register(repo);
+			}
+		});
+	}
+
 	private static void save() throws IOException {
 		ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(
 				apiDB));
@@ -325,16 +816,51 @@ public class GitRecommenderServer implements Servlet {
 	}
 
 	public static void main(String[] args) throws Exception {
-		if (args.length != 1) {
-			System.err.println("Usage: GitRecommenderServer <port number>");
+		String model = args.length > 5 ? args[5] : "cochange";
+		if (args.length < 1
+				|| args.length > 6
+				|| !(model.equals("cochange") || model.equals("cosine") || model
+						.equals("cooccurrence"))) {
+			System.err
+					.println("Usage: GitRecommenderServer <port number> [refresh interval in minutes] [concurrent clones or refreshes] [model cache MB] [max request KB] [cochange|cosine|cooccurrence]");
 			System.exit(-1);
 		}
+		long refreshMinutes = args.length > 1 ? Long.parseLong(args[1])
+				: 24 * 60;
+		int concurrentRefreshes = args.length > 2 ? Integer.parseInt(args[2])
+				: 2;
+		long modelBytes = args.length > 3 ? Long.parseLong(args[3]) * 1024 * 1024
+				: Runtime.getRuntime().maxMemory() / 4;
+		models = new ModelCache(modelBytes, model.equals("cochange"),
+				model.equals("cooccurrence") ? Similarity.COOCCURRENCE
+						: Similarity.COSINE);
+		if (args.length > 4)
+			maxBody = Long.parseLong(args[4]) * 1024;
 
 		load();
+		onboarding = onboarding(concurrentRefreshes);
+		scheduler = new RefreshScheduler(repos.values(),
+				refreshMinutes * 60 * 1000L, concurrentRefreshes,
+				new RefreshScheduler.Listener() {
+					public void refreshed(TrackedRepo repo) {
+						results.invalidate(repo);
+						try {
+							models.refresh(repo);
+						} catch (IOException e) {
+							System.err.println("Error loading " + repo.url
+									+ ": " + e);
+							models.invalidate(repo);
+						}
+					}
+				});
+		scheduler.start();
 		Server server = new Server(Integer.valueOf(args[0]));
 		ServletHolder holder = new ServletHolder(new GitRecommenderServer());
 		ServletHandler context = new ServletHandler();
 		context.addServletWithMapping(holder, "/recommend");
+		context.addServletWithMapping(holder, "/recommend/batch");
+		context.addServletWithMapping(holder, "/jobs/*");
+		context.addServletWithMapping(holder, "/metrics");
 		server.setHandler(context);
 		server.start();
 		server.join();
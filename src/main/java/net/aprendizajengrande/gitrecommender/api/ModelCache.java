@@ -0,0 +1,264 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.api;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.aprendizajengrande.gitrecommender.Metrics;
+import net.aprendizajengrande.gitrecommender.Recommend;
+import net.aprendizajengrande.gitrecommender.db.DB;
+import net.aprendizajengrande.gitrecommender.reco.ItemBasedRecommender;
+import net.aprendizajengrande.gitrecommender.reco.ItemBasedRecommender.Similarity;
+import net.aprendizajengrande.gitrecommender.reco.Recommender;
+
+// the DB and recommender of the repositories queried lately, kept in memory
+// so requests don't read them from disk again. Least recently used models
+// are dropped once their estimated heap size goes over the budget. A model
+// is good for the index it was loaded from, it is loaded again once the
+// repository is updated (see refresh). Models are co-change ones, or
+// item-based with the given similarity.
+class ModelCache {
+
+	static class Model {
+		final Recommend recommend;
+		// TrackedRepo timestamp of the index it was loaded from
+		final long timestamp;
+		final long bytes;
+
+		Model(Recommend recommend, long timestamp) {
+			this.recommend = recommend;
+			this.timestamp = timestamp;
+			Recommender recommender = recommend.recommender();
+			long bytes = recommend.db().heapBytes();
+			if (recommender instanceof ItemBasedRecommender)
+				bytes += ((ItemBasedRecommender) recommender).heapBytes();
+			this.bytes = bytes;
+		}
+	}
+
+	// a model being loaded or loaded, loaded once by the first request
+	// needing it
+	private static class Entry {
+		private final TrackedRepo repo;
+		private final long timestamp;
+		// for an earlier index, until this one is loaded
+		private Model previous;
+		private Model model;
+		// its bytes are in the total, guarded by the cache
+		private boolean counted = false;
+		// updated from the previous model rather than built
+		private boolean updated = false;
+
+		Entry(TrackedRepo repo, long timestamp, Model previous) {
+			this.repo = repo;
+			this.timestamp = timestamp;
+			this.previous = previous;
+		}
+
+		synchronized Model model(boolean coChange, Similarity similarity)
+				throws IOException {
+			if (model == null) {
+				long start = System.nanoTime();
+				DB db = new DB(repo.dbDir());
+				// only if the update went from its index to this one,
+				// otherwise there is no telling which authors changed
+				Recommender from = null;
+				int[] changedAuthors = null;
+				TrackedRepo.Changes changes = repo.changes();
+				if (previous != null && changes != null
+						&& changes.from == previous.timestamp
+						&& changes.to == timestamp) {
+					from = previous.recommend.recommender();
+					changedAuthors = changes.authors;
+				}
+				model = new Model(new Recommend(db, Recommend.recommender(db,
+						coChange, similarity, from, changedAuthors)),
+						timestamp);
+				updated = from instanceof ItemBasedRecommender
+						&& model.recommend.recommender() instanceof ItemBasedRecommender;
+				previous = null;
+				LOAD.observeSince(start);
+			}
+			return model;
+		}
+	}
+
+	private static final Metrics.Histogram LOAD = Metrics.registry()
+			.histogram("gitrecommender_model_load_seconds", "",
+					"Loading a DB and building its recommender.");
+
+	private final long maxBytes;
+	private final boolean coChange;
+	private final Similarity similarity;
+
+	// access order, guarded by this object
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+			16, 0.75f, true);
+	private long bytes = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong updates = new AtomicLong();
+
+	ModelCache(long maxBytes, boolean coChange, Similarity similarity) {
+		this.maxBytes = maxBytes;
+		this.coChange = coChange;
+		this.similarity = similarity;
+	}
+
+	// the model for the current index of an indexed repository
+	Model get(TrackedRepo repo) throws IOException {
+		long timestamp = repo.timestamp();
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(repo.url);
+			if (entry != null && entry.timestamp == timestamp)
+				hits.incrementAndGet();
+			else {
+				misses.incrementAndGet();
+				remove(repo.url);
+				entry = new Entry(repo, timestamp, null);
+				entries.put(repo.url, entry);
+			}
+		}
+		return load(repo, entry);
+	}
+
+	// after the repository was updated, loads the model for its new index
+	// from the one cached for the previous index. For item-based models only
+	// the rows of the authors with new commits (see TrackedRepo.changes) and
+	// of the files they touched are built again (see
+	// ItemBasedRecommender.update), co-change ones read the updated index.
+	// Requests wait for it instead of loading it themselves. Models not in
+	// the cache stay out until requested
+	void refresh(TrackedRepo repo) throws IOException {
+		Entry entry;
+		synchronized (this) {
+			Entry old = entries.get(repo.url);
+			if (old != null && old.timestamp == repo.timestamp())
+				return; // loaded by a request already
+			remove(repo.url);
+			if (old == null || !old.counted)
+				return;
+			entry = new Entry(repo, repo.timestamp(), old.model);
+			entries.put(repo.url, entry);
+		}
+		load(repo, entry);
+	}
+
+	private Model load(TrackedRepo repo, Entry entry) throws IOException {
+		Model model;
+		try {
+			model = entry.model(coChange, similarity);
+		} catch (IOException e) {
+			synchronized (this) {
+				if (entries.get(repo.url) == entry)
+					entries.remove(repo.url);
+			}
+			throw e;
+		}
+
+		synchronized (this) {
+			// counted once, by the request or refresh that loaded it
+			if (entries.get(repo.url) == entry && !entry.counted) {
+				entry.counted = true;
+				if (entry.updated)
+					updates.incrementAndGet();
+				bytes += model.bytes;
+				evict(repo.url);
+			}
+		}
+		return model;
+	}
+
+	// the model for the current index if it is loaded already, null
+	// otherwise (misses are counted by get)
+	synchronized Model peek(TrackedRepo repo) {
+		Entry entry = entries.get(repo.url);
+		if (entry == null || entry.timestamp != repo.timestamp()
+				|| !entry.counted)
+			return null;
+		hits.incrementAndGet();
+		return entry.model;
+	}
+
+	// drops the model of a repository, after it was updated
+	synchronized void invalidate(TrackedRepo repo) {
+		remove(repo.url);
+	}
+
+	private void remove(String url) {
+		Entry entry = entries.remove(url);
+		if (entry != null && entry.counted)
+			bytes -= entry.model.bytes;
+	}
+
+	// drops least recently used models until under budget, but never the
+	// one just loaded
+	private void evict(String keep) {
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Entry> next = it.next();
+			Entry entry = next.getValue();
+			if (next.getKey().equals(keep) || !entry.counted)
+				continue;
+			it.remove();
+			bytes -= entry.model.bytes;
+			evictions.incrementAndGet();
+			System.err.println("Evicted model: " + next.getKey() + " ("
+					+ entry.model.bytes + " bytes)");
+		}
+	}
+
+	long hits() {
+		return hits.get();
+	}
+
+	long misses() {
+		return misses.get();
+	}
+
+	long evictions() {
+		return evictions.get();
+	}
+
+	// item-based models updated after a refresh instead of built
+	long updates() {
+		return updates.get();
+	}
+
+	synchronized long bytes() {
+		return bytes;
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	public String toString() {
+		return "models: " + size() + ", " + bytes() + " bytes, hits: "
+				+ hits() + ", misses: " + misses() + ", evictions: "
+				+ evictions() + ", updates: " + updates();
+	}
+}
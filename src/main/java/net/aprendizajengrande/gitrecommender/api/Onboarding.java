@@ -0,0 +1,197 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.api;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.aprendizajengrande.gitrecommender.UpdateLog;
+
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.json.JSONException;
+import org.json.JSONWriter;
+
+// clones and indexes new repositories in the background, at most
+// maxConcurrent at a time, one job per repository. Requests get the job to
+// poll instead of waiting. Finished jobs are kept for an hour.
+class Onboarding {
+
+	interface Listener {
+		// called from the job thread once the repository is indexed
+		void onboarded(TrackedRepo repo) throws IOException;
+	}
+
+	private static final long KEEP_MILLIS = 60 * 60 * 1000L;
+
+	class Job implements Runnable {
+		final String id;
+		final TrackedRepo repo;
+		final CloneProgress clone = new CloneProgress();
+		final UpdateLog.Progress ingest = new UpdateLog.Progress();
+		private final long created = System.currentTimeMillis();
+		private volatile boolean started = false;
+		private volatile long finished = 0;
+		private volatile String error = null;
+
+		Job(String id, TrackedRepo repo) {
+			this.id = id;
+			this.repo = repo;
+		}
+
+		public void run() {
+			started = true;
+			try {
+				System.err.println("Onboarding: " + repo.url + " (job " + id
+						+ ")");
+				repo.ensureIndexed(clone, ingest);
+				listener.onboarded(repo);
+			} catch (Exception e) {
+				System.err.println("Error onboarding " + repo.url + ": " + e);
+				error = e.toString();
+			} finally {
+				finished = System.currentTimeMillis();
+				running.remove(repo.url, this);
+			}
+		}
+
+		boolean finished() {
+			return finished != 0;
+		}
+
+		// queued, cloning, ingesting, indexing, done or failed
+		String state() {
+			if (error != null)
+				return "failed";
+			if (finished != 0 || repo.indexed())
+				return "done";
+			if (!started)
+				return "queued";
+			if (!repo.cloned())
+				return "cloning";
+			String stage = ingest.stage();
+			return stage.equals("waiting") ? "ingesting" : stage;
+		}
+
+		void write(JSONWriter json) throws JSONException {
+			json.object();
+			json.key("job").value(id);
+			json.key("repository").value(repo.url);
+			json.key("state").value(state());
+			json.key("clone").object().key("task").value(clone.task)
+					.key("done").value(clone.done.get()).key("total")
+					.value(clone.total).endObject();
+			json.key("commits").object().key("walked").value(ingest.walked())
+					.key("diffed").value(ingest.diffed()).key("imported")
+					.value(ingest.imported()).key("perSecond")
+					.value(Math.round(ingest.commitsPerSecond())).endObject();
+			long end = finished != 0 ? finished : System.currentTimeMillis();
+			json.key("elapsedSeconds").value((end - created) / 1000);
+			if (error != null)
+				json.key("error").value(error);
+			json.endObject();
+		}
+	}
+
+	// what the clone is at, as reported by JGit
+	static class CloneProgress implements ProgressMonitor {
+		private volatile String task = "";
+		private volatile int total = 0;
+		private final AtomicInteger done = new AtomicInteger();
+
+		public void start(int totalTasks) {
+		}
+
+		public void beginTask(String title, int totalWork) {
+			task = title;
+			total = totalWork;
+			done.set(0);
+		}
+
+		public void update(int completed) {
+			done.addAndGet(completed);
+		}
+
+		public void endTask() {
+		}
+
+		public boolean isCancelled() {
+			return false;
+		}
+	}
+
+	private final Listener listener;
+	private final ExecutorService workers;
+	private final AtomicLong ids = new AtomicLong();
+
+	// all jobs by id, and the unfinished one of each repository
+	private final ConcurrentHashMap<String, Job> jobs = new ConcurrentHashMap<String, Job>();
+	private final ConcurrentHashMap<String, Job> running = new ConcurrentHashMap<String, Job>();
+
+	Onboarding(int maxConcurrent, Listener listener) {
+		this.listener = listener;
+		this.workers = Executors.newFixedThreadPool(maxConcurrent,
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "onboarding-"
+								+ count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	// the job onboarding the repository, started unless there is one
+	// already
+	Job start(TrackedRepo repo) {
+		Job job = running.get(repo.url);
+		if (job != null)
+			return job;
+		job = new Job(String.valueOf(ids.incrementAndGet()), repo);
+		Job existing = running.putIfAbsent(repo.url, job);
+		if (existing != null)
+			return existing;
+		purge();
+		jobs.put(job.id, job);
+		workers.execute(job);
+		return job;
+	}
+
+	// null if unknown or long finished
+	Job get(String id) {
+		return jobs.get(id);
+	}
+
+	private void purge() {
+		long now = System.currentTimeMillis();
+		Iterator<Job> it = jobs.values().iterator();
+		while (it.hasNext()) {
+			Job job = it.next();
+			if (job.finished() && now - job.finished > KEEP_MILLIS)
+				it.remove();
+		}
+	}
+}
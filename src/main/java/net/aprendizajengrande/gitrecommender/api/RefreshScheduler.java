@@ -0,0 +1,121 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.api;
+
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// updates the tracked repositories in the background once their index is
+// older than the interval, at most maxConcurrent at a time. Requests keep
+// being answered from the index they have meanwhile.
+class RefreshScheduler {
+
+	interface Listener {
+		// called from the refreshing thread once the new index is in place
+		void refreshed(TrackedRepo repo);
+	}
+
+	// how often the repositories are checked
+	private static final long CHECK_MILLIS = 60 * 1000L;
+
+	private final Collection<TrackedRepo> repos;
+	private final long intervalMillis;
+	private final Listener listener;
+	private final ScheduledExecutorService timer;
+	private final ThreadPoolExecutor refreshers;
+
+	RefreshScheduler(Collection<TrackedRepo> repos, long intervalMillis,
+			int maxConcurrent, Listener listener) {
+		this.repos = repos;
+		this.intervalMillis = intervalMillis;
+		this.listener = listener;
+		this.timer = Executors.newSingleThreadScheduledExecutor(daemons(
+				"refresh-timer"));
+		// repositories are queued once (see TrackedRepo.scheduled), the
+		// queue can't hold more than all of them
+		this.refreshers = new ThreadPoolExecutor(maxConcurrent, maxConcurrent,
+				0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				daemons("repo-refresh"));
+	}
+
+	void start() {
+		long period = Math.min(CHECK_MILLIS, intervalMillis);
+		timer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				for (TrackedRepo repo : repos)
+					if (stale(repo))
+						refresh(repo);
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	void stop() {
+		timer.shutdownNow();
+		refreshers.shutdownNow();
+	}
+
+	boolean stale(TrackedRepo repo) {
+		return repo.indexed()
+				&& System.currentTimeMillis() - repo.timestamp() >= intervalMillis;
+	}
+
+	// queues a refresh unless one is queued or running already
+	void refresh(final TrackedRepo repo) {
+		if (!repo.scheduled.compareAndSet(false, true))
+			return;
+		refreshers.execute(new Runnable() {
+			public void run() {
+				try {
+					System.err.println("Refreshing: " + repo.url);
+					long start = System.currentTimeMillis();
+					if (repo.refresh()) {
+						System.err.println("Refreshed: " + repo.url + " in "
+								+ (System.currentTimeMillis() - start)
+								+ " ms");
+						listener.refreshed(repo);
+					}
+				} catch (Exception e) {
+					// keeps the old index, retried on the next check
+					System.err.println("Error refreshing " + repo.url + ": "
+							+ e);
+				} finally {
+					repo.scheduled.set(false);
+				}
+			}
+		});
+	}
+
+	private static ThreadFactory daemons(final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+}
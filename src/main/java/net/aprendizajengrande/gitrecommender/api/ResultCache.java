@@ -0,0 +1,143 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.api;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.aprendizajengrande.gitrecommender.reco.Recommendation;
+
+// recommendations already computed, keyed by repository, the last commit in
+// its index and the seed file ids (see Recommend.seeds), so a new
+// index never answers from the old one. At most maxEntries are kept, least
+// recently used first out, and none for longer than ttlMillis.
+class ResultCache {
+
+	static class Key {
+		private final String url;
+		private final String lastCommit;
+		private final int[] seeds;
+		final int howMany;
+		private final int hash;
+
+		Key(String url, String lastCommit, int[] seeds, int howMany) {
+			this.url = url;
+			this.lastCommit = lastCommit;
+			this.seeds = seeds;
+			this.howMany = howMany;
+			this.hash = 31 * (31 * (31 * url.hashCode() + lastCommit
+					.hashCode()) + Arrays.hashCode(seeds)) + howMany;
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return hash == other.hash && howMany == other.howMany
+					&& url.equals(other.url)
+					&& lastCommit.equals(other.lastCommit)
+					&& Arrays.equals(seeds, other.seeds);
+		}
+	}
+
+	private static class Cached {
+		final List<Recommendation> recos;
+		final long expires;
+
+		Cached(List<Recommendation> recos, long expires) {
+			this.recos = recos;
+			this.expires = expires;
+		}
+	}
+
+	private final int maxEntries;
+	private final long ttlMillis;
+
+	// access order, guarded by this object
+	private final LinkedHashMap<Key, Cached> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	ResultCache(final int maxEntries, long ttlMillis) {
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+		this.entries = new LinkedHashMap<Key, Cached>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Key, Cached> eldest) {
+				return size() > ResultCache.this.maxEntries;
+			}
+		};
+	}
+
+	// the recommendations cached for the key, null if none or expired
+	synchronized List<Recommendation> get(Key key) {
+		Cached cached = entries.get(key);
+		if (cached != null && cached.expires < System.currentTimeMillis()) {
+			entries.remove(key);
+			cached = null;
+		}
+		if (cached == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return cached.recos;
+	}
+
+	synchronized void put(Key key, List<Recommendation> recos) {
+		entries.put(key, new Cached(recos, System.currentTimeMillis()
+				+ ttlMillis));
+	}
+
+	// drops the entries of a repository, after it was updated they can't be
+	// hit anymore
+	synchronized void invalidate(TrackedRepo repo) {
+		Iterator<Key> it = entries.keySet().iterator();
+		while (it.hasNext())
+			if (it.next().url.equals(repo.url))
+				it.remove();
+	}
+
+	long hits() {
+		return hits.get();
+	}
+
+	long misses() {
+		return misses.get();
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	public String toString() {
+		return "results: " + size() + ", hits: " + hits() + ", misses: "
+				+ misses();
+	}
+}
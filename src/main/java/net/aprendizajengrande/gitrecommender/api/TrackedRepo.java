@@ -0,0 +1,213 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.api;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.aprendizajengrande.gitrecommender.UpdateLog;
+
+import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.RefSpec;
+
+// a repository the server recommends for, with its bare clone and DB in a
+// folder of its own. Requests read the DB without locking (it can be read
+// while UpdateLog writes to it, see DB). The clone and first index, and
+// later updates, run in the background (see Onboarding and
+// RefreshScheduler) while requests are answered from the previous index, if
+// any. One clone or update at a time.
+class TrackedRepo {
+
+	final String url;
+	final File dir;
+
+	private final ReentrantLock updateLock = new ReentrantLock();
+
+	// queued for a refresh, see RefreshScheduler
+	final AtomicBoolean scheduled = new AtomicBoolean();
+
+	// when the DB was last updated, 0 for never, -1 if not cloned yet
+	private volatile long timestamp;
+
+	// what the last update changed, see changes()
+	private volatile Changes changes;
+
+	// the authors with commits in an update, from the index of one
+	// timestamp to the next
+	static class Changes {
+		final long from;
+		final long to;
+		// sorted
+		final int[] authors;
+
+		Changes(long from, long to, int[] authors) {
+			this.from = from;
+			this.to = to;
+			this.authors = authors;
+		}
+	}
+
+	TrackedRepo(String url, File dir) throws IOException {
+		this.url = url;
+		this.dir = dir;
+		this.timestamp = readTimeStamp();
+	}
+
+	File gitDir() {
+		return new File(dir, "git");
+	}
+
+	File dbDir() {
+		return new File(dir, "db");
+	}
+
+	boolean cloned() {
+		return timestamp >= 0;
+	}
+
+	boolean indexed() {
+		return timestamp > 0;
+	}
+
+	long timestamp() {
+		return timestamp;
+	}
+
+	// of the last update in this process, null if there was none after the
+	// first index
+	Changes changes() {
+		return changes;
+	}
+
+	// clones and indexes the repository unless it was already
+	void ensureIndexed(ProgressMonitor cloneMonitor,
+			UpdateLog.Progress progress) throws Exception {
+		if (indexed())
+			return;
+		updateLock.lock();
+		try {
+			if (!cloned())
+				cloneRepo(cloneMonitor);
+			if (!indexed())
+				update(progress);
+		} finally {
+			updateLock.unlock();
+		}
+	}
+
+	// fetches and indexes the new commits, false if it was not indexed yet
+	// or another update is running
+	boolean refresh() throws Exception {
+		if (!indexed() || !updateLock.tryLock())
+			return false;
+		try {
+			update(new UpdateLog.Progress());
+			return true;
+		} finally {
+			updateLock.unlock();
+		}
+	}
+
+	private void cloneRepo(ProgressMonitor monitor) throws Exception {
+		File gitDir = gitDir();
+		if (gitDir.exists())
+			delete(gitDir); // from a clone that failed
+		dbDir().mkdirs();
+
+		CloneCommand clone = Git.cloneRepository();
+		clone.setBare(true);
+		clone.setCloneAllBranches(true);
+		clone.setDirectory(gitDir).setURI(url);
+		clone.setProgressMonitor(monitor);
+		clone.call().getRepository().close();
+
+		setTimeStamp(0L);
+	}
+
+	private void update(UpdateLog.Progress progress) throws Exception {
+		File gitDir = gitDir();
+		File dbDir = dbDir();
+		long start = System.currentTimeMillis();
+
+		// update repo, a bare clone has no working tree to pull into, its
+		// branches are moved to the remote ones instead
+		if (indexed()) {
+			FileRepositoryBuilder builder = new FileRepositoryBuilder();
+			Repository repository = builder.setGitDir(gitDir)
+					.readEnvironment().findGitDir().build();
+			Git git = new Git(repository);
+			git.fetch().setRefSpecs(new RefSpec("+refs/heads/*:refs/heads/*"))
+					.call();
+			repository.close();
+		}
+
+		long from = timestamp;
+		BitSet authors = new BitSet();
+		UpdateLog.update(gitDir, dbDir, progress, authors);
+
+		setTimeStamp(start);
+		if (from > 0) {
+			int[] changed = new int[authors.cardinality()];
+			int pos = 0;
+			for (int author = authors.nextSetBit(0); author >= 0; author = authors
+					.nextSetBit(author + 1))
+				changed[pos++] = author;
+			changes = new Changes(from, start, changed);
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+
+	private void setTimeStamp(long timestamp) throws IOException {
+		PrintWriter pw = new PrintWriter(new FileWriter(new File(dir,
+				"timestamp")));
+		pw.println(timestamp);
+		pw.close();
+		this.timestamp = timestamp;
+	}
+
+	private long readTimeStamp() throws IOException {
+		File timestampFile = new File(dir, "timestamp");
+		if (!timestampFile.exists())
+			return -1L;
+		BufferedReader br = new BufferedReader(new FileReader(timestampFile));
+		String line = br.readLine();
+		br.close();
+		if (line == null)
+			return 0L;
+		return Long.parseLong(line);
+	}
+}
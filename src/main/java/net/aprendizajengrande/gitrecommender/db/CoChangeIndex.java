@@ -0,0 +1,244 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.db;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+// file x file co-change counts, following Ying (2003): two files are related
+// if they are changed in the same commit. Only the top neighbours of each
+// file are kept, so the index stays sparse and a recommendation is just a
+// merge of the neighbour lists of the seeds.
+// this class is not thread-safe
+public class CoChangeIndex {
+
+	// neighbours kept per file when saving
+	public static final int NEIGHBOURS = 50;
+
+	// commits touching more files than this are usually merges, imports or
+	// mass renames and say nothing about co-change
+	public static final int MAX_COMMIT_FILES = 100;
+
+	private static final IntIntView EMPTY = new IntIntHashMap(0);
+
+	// rows as of the last DB snapshot, may be null
+	private DBFile.Csr base;
+
+	// file-id -> file-id -> number of commits changing both, null while
+	// unchanged from the base
+	private IntIntHashMap[] coChanges = new IntIntHashMap[16];
+
+	// file-id -> epoch of the last change to the row in the heap, rows not
+	// changed since a snapshot are dropped when rebasing on it
+	private int[] epochs = new int[16];
+	private int epoch = 0;
+
+	// file-id -> number of commits changing it (and at least another file)
+	private int[] changes = new int[16];
+
+	// rows in the heap
+	private int rows = 0;
+
+	private final int neighbours;
+
+	public CoChangeIndex() {
+		this(null, NEIGHBOURS);
+	}
+
+	public CoChangeIndex(int neighbours) {
+		this(null, neighbours);
+	}
+
+	public CoChangeIndex(DBFile.Csr base) {
+		this(base, NEIGHBOURS);
+	}
+
+	public CoChangeIndex(DBFile.Csr base, int neighbours) {
+		this.base = base;
+		this.neighbours = neighbours;
+		if (base != null) {
+			int size = Math.max(16, base.rows());
+			coChanges = new IntIntHashMap[size];
+			epochs = new int[size];
+			changes = Arrays.copyOf(base.totals(), size);
+		}
+	}
+
+	public void observe(List<Integer> files) {
+		if (files.size() < 2 || files.size() > MAX_COMMIT_FILES)
+			return;
+		for (int file : files) {
+			ensureFiles(file + 1);
+			changes[file]++;
+
+			IntIntHashMap row = heapRow(file);
+			for (int other : files)
+				if (other != file)
+					row.increment(other, 1);
+			// let rows grow to twice the size before pruning, otherwise a
+			// new neighbour would be dropped as soon as it is seen
+			if (row.size() > 2 * neighbours)
+				coChanges[file] = prune(row);
+		}
+	}
+
+	// the row of a file in the heap, copied from the base on its first
+	// change since the snapshot
+	private IntIntHashMap heapRow(int file) {
+		IntIntHashMap row = coChanges[file];
+		if (row == null) {
+			row = base != null && file < base.rows() ? DB.copy(base.row(file))
+					: new IntIntHashMap();
+			coChanges[file] = row;
+			rows++;
+		}
+		epochs[file] = epoch;
+		return row;
+	}
+
+	// drops a file from the index: its changes, its row and its entries in
+	// other rows. Reads every row, for one-off fixes only
+	void remove(int file) {
+		int size = Math.max(coChanges.length, base == null ? 0 : base.rows());
+		ensureFiles(Math.max(size, file + 1));
+		for (int other = 0; other < size; other++)
+			if (other != file && neighbours(other).get(file) != 0)
+				heapRow(other).remove(file);
+		changes[file] = 0;
+		heapRow(file);
+		coChanges[file] = new IntIntHashMap();
+	}
+
+	private void ensureFiles(int size) {
+		if (size > coChanges.length) {
+			int capacity = Math.max(size, coChanges.length * 2);
+			coChanges = Arrays.copyOf(coChanges, capacity);
+			epochs = Arrays.copyOf(epochs, capacity);
+			changes = Arrays.copyOf(changes, capacity);
+		}
+	}
+
+	public int changes(int file) {
+		return file < changes.length ? changes[file] : 0;
+	}
+
+	// neighbours of a file with their co-change counts, in no given order
+	public IntIntView neighbours(int file) {
+		if (file < coChanges.length && coChanges[file] != null)
+			return coChanges[file];
+		if (base != null && file < base.rows())
+			return base.row(file);
+		return EMPTY;
+	}
+
+	public boolean isEmpty() {
+		return rows == 0 && (base == null || base.entries() == 0);
+	}
+
+	// rough size of the rows in the heap and the per-file arrays, rows still
+	// in the mapped snapshot are not counted
+	public long heapBytes() {
+		long bytes = 16 + 16L * coChanges.length;
+		for (IntIntHashMap row : coChanges)
+			if (row != null)
+				bytes += row.heapBytes();
+		return bytes;
+	}
+
+	// changes per file, for files [0, fileCount)
+	int[] changesPerFile(int fileCount) {
+		return Arrays.copyOf(changes, fileCount);
+	}
+
+	// the rows for files [0, fileCount) pruned to the top neighbours, rows
+	// in the heap are copied so the result is not affected by later changes
+	IntIntView[] snapshot(int fileCount) {
+		IntIntView[] result = new IntIntView[fileCount];
+		for (int file = 0; file < fileCount; file++) {
+			IntIntHashMap row = file < coChanges.length ? coChanges[file]
+					: null;
+			if (row == null) {
+				result[file] = neighbours(file);
+				continue;
+			}
+			if (row.size() > neighbours) {
+				row = prune(row);
+				coChanges[file] = row;
+			}
+			result[file] = DB.copy(row);
+		}
+		epoch++;
+		return result;
+	}
+
+	// continues on top of the snapshot taken last
+	void rebase(DBFile.Csr newBase) {
+		base = newBase;
+		for (int file = 0; file < coChanges.length; file++)
+			if (coChanges[file] != null && epochs[file] < epoch) {
+				coChanges[file] = null;
+				rows--;
+			}
+	}
+
+	// keeps the most frequent neighbours, ties broken by lowest file id
+	private IntIntHashMap prune(IntIntHashMap row) {
+		// count in the high bits, inverted file id in the low ones, so a
+		// plain sort puts the entries to keep last
+		long[] entries = new long[row.size()];
+		int pos = 0;
+		IntIntView.Cursor c = row.cursor();
+		while (c.next())
+			entries[pos++] = (long) c.value() << 32
+					| (Integer.MAX_VALUE - c.key());
+		Arrays.sort(entries);
+		IntIntHashMap result = new IntIntHashMap(2 * neighbours);
+		for (int i = entries.length - neighbours; i < entries.length; i++)
+			result.put(Integer.MAX_VALUE - (int) entries[i],
+					(int) (entries[i] >>> 32));
+		return result;
+	}
+
+	// cochange.tsv from text DBs
+	public void load(File file) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		String line = br.readLine();
+		IntIntHashMap current = null;
+		while (line != null) {
+			String[] parts = line.split("\t");
+			if (parts.length == 3)
+				current.put(Integer.parseInt(parts[1]),
+						Integer.parseInt(parts[2]));
+			else {
+				int currentId = Integer.parseInt(parts[0]);
+				ensureFiles(currentId + 1);
+				changes[currentId] = Integer.parseInt(parts[1]);
+				current = new IntIntHashMap();
+				coChanges[currentId] = current;
+				rows++;
+			}
+			line = br.readLine();
+		}
+		br.close();
+	}
+}
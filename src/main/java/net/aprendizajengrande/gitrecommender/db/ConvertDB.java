@@ -0,0 +1,52 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.db;
+
+import java.io.File;
+
+// converts a DB in the old text layout (counts.tsv, files.txt, ...) into
+// the binary DBFile one
+public class ConvertDB {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 1) {
+			System.err.println("Usage: ConvertDB <db dir>");
+			System.exit(-1);
+		}
+
+		File dbDir = new File(args[0]);
+		if (new File(dbDir, DBFile.NAME).exists()) {
+			System.err.println(dbDir + " already has a " + DBFile.NAME);
+			System.exit(-1);
+		}
+		if (!new File(dbDir, "counts.tsv").exists()) {
+			System.err.println("No counts.tsv in " + dbDir);
+			System.exit(-1);
+		}
+
+		long start = System.currentTimeMillis();
+		DB db = new DB(dbDir);
+		db.save();
+		db.close();
+		long end = System.currentTimeMillis();
+		System.out.println("Converted " + db.authors().size() + " authors, "
+				+ db.files().size() + " files in " + (end - start) + " ms.");
+		System.out.println("The text files are no longer read and can be removed.");
+	}
+}
@@ -21,63 +21,239 @@ package net.aprendizajengrande.gitrecommender.db;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 // files, user, commits counts
-// persists to disk in text files
+// persists to disk in a memory-mapped binary file (see DBFile) plus a
+// journal of the changes since (see Journal), older DBs in text files are
+// still read
 // good to move to a relational DB
-// this class is not thread-safe
+// idAuthor and idFile can be used from any thread, anything else from one
+// thread at a time
 public class DB {
 
-	// author-id -> file-id -> counts
-	private Map<Integer, Map<Integer, Counter>> counts = new HashMap<>();
+	// snapshot the DB was opened from, rows not changed since are read
+	// straight from it
+	private DBFile base;
+
+	// author-id -> file-id -> counts, null while unchanged from the base
+	private IntIntHashMap[] counts = new IntIntHashMap[16];
+
+	private static final IntIntView EMPTY = new IntIntHashMap(0);
+
+	private static final String DEV_NULL = "/dev/null";
 
 	// author-id -> counts
-	private Map<Integer, Counter> commitCounts = new HashMap<>();
+	private int[] commitCounts = new int[16];
+
+	// what commitsPerAuthor() hands out until the counts change
+	private int[] frozenCommitCounts = null;
+
+	// file-id -> file-id -> commits changing both
+	private CoChangeIndex coChanges = new CoChangeIndex();
 
 	// id-to-string mappings
-	private Map<String, Integer> authorIds = new HashMap<>();
-	private Map<String, Integer> fileIds = new HashMap<>();
-	private List<String> authors = new ArrayList<>();
-	private List<String> files = new ArrayList<>();
+	private Interner authors = new Interner();
+	private Interner files = new Interner();
 
 	private String lastCommit = "NOSUCHCOMMIT";
 
 	private File dataDir;
 
+	// write-ahead log, opened on the first change
+	private Journal journal;
+
+	// first journal segment not in the base, and the valid length of the
+	// last segment found when opening
+	private int generation = 0;
+	private long journalLength = 0;
+
+	// author-id -> epoch of the last change to the row in the heap, rows not
+	// changed since a snapshot are dropped when rebasing on it
+	private int[] countsEpochs = new int[16];
+	private int epoch = 0;
+
+	// snapshot being written in the background, if any
+	private ExecutorService compactor;
+	private Future<DBFile> compaction;
+
+	// changes since the last snapshot
+	private boolean changed = false;
+
+	// ids below these have their AUTHOR / FILE record in the journal or are
+	// in the base
+	private int journaledAuthors = 0;
+	private int journaledFiles = 0;
+
 	public DB(File dataDir) throws IOException {
 		this.dataDir = dataDir;
 		load();
 	}
 
 	private void load() throws IOException {
+		// a checkpoint finishing in another process may delete the segments
+		// we were about to replay, even after listing them, then we just
+		// start over from its snapshot. Failing twice on the same snapshot
+		// means the journal is broken instead
+		int failed = -1;
+		for (;;) {
+			int snapshot = -1;
+			try {
+				loadSnapshot();
+				snapshot = generation;
+				replay();
+				dropDevNull();
+				journaledAuthors = authors.size();
+				journaledFiles = files.size();
+				return;
+			} catch (JournalMismatchException e) {
+				if (snapshot == failed)
+					throw e;
+				failed = snapshot;
+				reset();
+			}
+		}
+	}
+
+	private void loadSnapshot() throws IOException {
+		File binFile = new File(dataDir, DBFile.NAME);
+		if (binFile.exists()) {
+			open(DBFile.open(binFile));
+			return;
+		}
+
 		File countsFile = new File(dataDir, "counts.tsv");
 		if (!countsFile.exists())
 			return; // empty DB
 
+		loadTsv();
+	}
+
+	private void reset() {
+		base = null;
+		counts = new IntIntHashMap[16];
+		countsEpochs = new int[16];
+		commitCounts = new int[16];
+		frozenCommitCounts = null;
+		coChanges = new CoChangeIndex();
+		authors = new Interner();
+		files = new Interner();
+		lastCommit = "NOSUCHCOMMIT";
+		generation = 0;
+		journalLength = 0;
+	}
+
+	private void open(DBFile file) {
+		base = file;
+		authors = new Interner(file.authors());
+		files = new Interner(file.files());
+		int authorCount = file.authors().size();
+		counts = new IntIntHashMap[Math.max(16, authorCount)];
+		countsEpochs = new int[counts.length];
+		commitCounts = Arrays.copyOf(file.counts().totals(), counts.length);
+		frozenCommitCounts = null;
+		coChanges = new CoChangeIndex(file.coChanges());
+		lastCommit = file.lastCommit();
+		generation = file.generation();
+	}
+
+	private void replay() throws IOException {
+		List<Integer> segments = Journal.segments(dataDir, generation);
+		if (!segments.isEmpty() && segments.get(0) != generation)
+			throw new JournalMismatchException("Missing journal segment "
+					+ generation);
+		Journal.Listener listener = new Journal.Listener() {
+			public void author(int id, String name) throws IOException {
+				if (authors.id(name) != id)
+					throw new JournalMismatchException("Author " + name
+							+ " expected as " + id);
+			}
+
+			public void file(int id, String name) throws IOException {
+				if (files.id(name) != id)
+					throw new JournalMismatchException("File " + name
+							+ " expected as " + id);
+			}
+
+			public void commit(String name, int author, List<Integer> files) {
+				apply(author, files);
+				lastCommit = name;
+			}
+		};
+		int expected = generation;
+		for (int segment : segments) {
+			if (segment != expected)
+				throw new JournalMismatchException("Missing journal segment "
+						+ expected);
+			journalLength = Journal.replay(
+					Journal.segmentFile(dataDir, segment), listener);
+			expected++;
+		}
+		if (!segments.isEmpty()) {
+			generation = segments.get(segments.size() - 1);
+			// replayed changes are not in the snapshot yet
+			changed = true;
+		}
+	}
+
+	// DBs indexed before deletions were recorded under their old path have
+	// "/dev/null" as a file changed by every deletion. It keeps its id but
+	// loses its counts and co-changes, in the heap until the next snapshot
+	// is written without them
+	private void dropDevNull() {
+		Integer devNull = files.idOrNull(DEV_NULL);
+		if (devNull == null)
+			return;
+		ensureAuthors(authors.size());
+		for (int author = 0; author < authors.size(); author++)
+			if (counts(author).get(devNull) != 0) {
+				if (counts[author] == null)
+					counts[author] = copy(counts(author));
+				counts[author].remove(devNull);
+				countsEpochs[author] = epoch;
+				changed = true;
+			}
+		// its own row has entries whenever other rows have it
+		if (coChanges.changes(devNull) != 0
+				|| coChanges.neighbours(devNull).size() != 0) {
+			coChanges.remove(devNull);
+			changed = true;
+		}
+	}
+
+	private Journal journal() throws IOException {
+		if (journal == null)
+			journal = new Journal(dataDir, generation, journalLength);
+		return journal;
+	}
+
+	// text format used before DBFile, kept for conversion
+	private void loadTsv() throws IOException {
 		BufferedReader br;
 		String line;
 
 		br = new BufferedReader(new FileReader(new File(dataDir, "counts.tsv")));
 		line = br.readLine();
-		Map<Integer, Counter> current = null;
+		IntIntHashMap current = null;
 		while (line != null) {
 			String[] parts = line.split("\t");
 			if (parts.length == 3)
 				current.put(Integer.parseInt(parts[1]),
-						new Counter(Integer.parseInt(parts[2])));
+						Integer.parseInt(parts[2]));
 			else {
 				int currentId = Integer.parseInt(parts[0]);
-				current = new HashMap<>();
-				counts.put(currentId, current);
+				ensureAuthors(currentId + 1);
+				current = new IntIntHashMap();
+				counts[currentId] = current;
 			}
 			line = br.readLine();
 		}
@@ -88,8 +264,9 @@ public class DB {
 		line = br.readLine();
 		while (line != null) {
 			String[] parts = line.split("\t");
-			commitCounts.put(Integer.parseInt(parts[0]),
-					new Counter(Integer.parseInt(parts[1])));
+			int author = Integer.parseInt(parts[0]);
+			ensureAuthors(author + 1);
+			commitCounts[author] = Integer.parseInt(parts[1]);
 			line = br.readLine();
 		}
 		br.close();
@@ -97,9 +274,7 @@ public class DB {
 		br = new BufferedReader(new FileReader(new File(dataDir, "files.txt")));
 		line = br.readLine();
 		while (line != null) {
-			int id = files.size();
-			files.add(line);
-			fileIds.put(line, id);
+			files.id(line);
 			line = br.readLine();
 		}
 		br.close();
@@ -108,144 +283,247 @@ public class DB {
 				new FileReader(new File(dataDir, "authors.txt")));
 		line = br.readLine();
 		while (line != null) {
-			int id = authors.size();
-			authors.add(line);
-			authorIds.put(line, id);
+			authors.id(line);
 			line = br.readLine();
 		}
 		br.close();
+		ensureAuthors(authors.size());
+		for (int author = 0; author < authors.size(); author++)
+			if (counts[author] == null)
+				counts[author] = new IntIntHashMap();
 
 		br = new BufferedReader(new FileReader(new File(dataDir,
 				"last-commit.txt")));
 		lastCommit = br.readLine();
 		br.close();
-	}
 
-	public void save() throws IOException {
-		PrintWriter pw;
+		// DBs created before the co-change index existed lack it
+		File coChangesFile = new File(dataDir, "cochange.tsv");
+		if (coChangesFile.exists())
+			coChanges.load(coChangesFile);
+	}
 
-		pw = new PrintWriter(new FileWriter(new File(dataDir, "counts.tsv")));
-		for (Entry<Integer, Map<Integer, Counter>> e : counts.entrySet()) {
-			pw.println(e.getKey());
-			for (Entry<Integer, Counter> ee : e.getValue().entrySet())
-				pw.println("\t" + ee.getKey() + "\t" + ee.getValue().intValue());
-		}
-		pw.close();
+	// makes the journal durable, cheap enough to call every few commits
+	public void sync() throws IOException {
+		if (journal != null)
+			journal.sync();
+		if (compaction != null && compaction.isDone())
+			finishCompaction();
+	}
 
-		pw = new PrintWriter(new FileWriter(new File(dataDir,
-				"commit-counts.tsv")));
-		for (Entry<Integer, Counter> e : commitCounts.entrySet()) {
-			pw.println(e.getKey() + "\t" + e.getValue().intValue());
+	// starts writing a new snapshot in the background, unless one is still
+	// being written. The journal moves to a new segment and the old ones are
+	// deleted once the snapshot is in place. Only the rows changed since the
+	// last snapshot are copied before returning.
+	public void checkpoint() throws IOException {
+		if (compaction != null) {
+			if (!compaction.isDone())
+				return;
+			finishCompaction();
 		}
-		pw.close();
+		if (!changed && base != null)
+			return;
+
+		// the old segments must name every id the new one refers to
+		journalNewIds();
+		final int snapshotGeneration = journal().rotate();
+		final String snapshotLastCommit = lastCommit;
+		final List<String> snapshotAuthors = authors.snapshot();
+		final List<String> snapshotFiles = files.snapshot();
+		final int[] snapshotCommits = commitsPerAuthor();
+		final IntIntView[] snapshotCounts = new IntIntView[snapshotCommits.length];
+		for (int author = 0; author < snapshotCounts.length; author++)
+			snapshotCounts[author] = author < counts.length
+					&& counts[author] != null ? copy(counts[author])
+					: counts(author);
+		final int[] snapshotChanges = coChanges.changesPerFile(snapshotFiles
+				.size());
+		final IntIntView[] snapshotCoChanges = coChanges
+				.snapshot(snapshotFiles.size());
+		epoch++;
+		changed = false;
+
+		if (compactor == null)
+			compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "db-compactor");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		compaction = compactor.submit(new Callable<DBFile>() {
+			public DBFile call() throws IOException {
+				File binFile = new File(dataDir, DBFile.NAME);
+				DBFile.write(binFile, snapshotGeneration, snapshotLastCommit,
+						snapshotAuthors, snapshotFiles, snapshotCommits,
+						snapshotCounts, snapshotChanges, snapshotCoChanges);
+				Journal.deleteBefore(dataDir, snapshotGeneration);
+				return DBFile.open(binFile);
+			}
+		});
+	}
 
-		pw = new PrintWriter(new FileWriter(new File(dataDir, "files.txt")));
-		for (String file : files) {
-			pw.println(file);
+	// continues on top of the snapshot written in the background, dropping
+	// the rows in the heap that did not change since it was taken
+	private void finishCompaction() throws IOException {
+		DBFile file;
+		try {
+			file = compaction.get();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException("Checkpoint failed", e.getCause());
+		} finally {
+			compaction = null;
 		}
-		pw.close();
+		base = file;
+		for (int author = 0; author < counts.length; author++)
+			if (counts[author] != null && countsEpochs[author] < epoch
+					&& author < file.authors().size())
+				counts[author] = null;
+		coChanges.rebase(file.coChanges());
+	}
 
-		pw = new PrintWriter(new FileWriter(new File(dataDir, "authors.txt")));
-		for (String author : authors) {
-			pw.println(author);
-		}
-		pw.close();
+	// writes a full snapshot and waits for it
+	public void save() throws IOException {
+		if (compaction != null)
+			finishCompaction();
+		checkpoint();
+		if (compaction != null)
+			finishCompaction();
+	}
 
-		pw = new PrintWriter(new FileWriter(
-				new File(dataDir, "last-commit.txt")));
-		pw.println(lastCommit);
-		pw.close();
+	public void close() throws IOException {
+		if (compaction != null)
+			finishCompaction();
+		if (compactor != null)
+			compactor.shutdown();
+		if (journal != null)
+			journal.close();
+		journal = null;
 	}
 
-	public int idAuthor(String author) {
-		Integer result = authorIds.get(author);
-		if (result == null) {
-			result = authors.size();
-			authors.add(author);
-			authorIds.put(author, result);
-			commitCounts.put(result, new Counter());
-			counts.put(result, new HashMap<Integer, Counter>());
-		}
-		return result;
+	// ids are journaled when the first commit using them is
+	public int idAuthor(String author) throws IOException {
+		return authors.id(author);
 	}
 
-	public int idFile(String file) {
-		Integer result = fileIds.get(file);
-		if (result == null) {
-			result = files.size();
-			files.add(file);
-			fileIds.put(file, result);
-		}
-		return result;
+	public int idFile(String file) throws IOException {
+		return files.id(file);
 	}
 
 	public Integer idFileOrNull(String file) {
-		return fileIds.get(file);
+		return files.idOrNull(file);
 	}
 
-	public void observeCommit(String commit, int author, List<Integer> files) {
+	private void journalNewIds() throws IOException {
+		for (int size = authors.size(); journaledAuthors < size; journaledAuthors++)
+			journal().author(journaledAuthors, authors.get(journaledAuthors));
+		for (int size = files.size(); journaledFiles < size; journaledFiles++)
+			journal().file(journaledFiles, files.get(journaledFiles));
+	}
+
+	private void ensureAuthors(int size) {
+		if (size > counts.length) {
+			int capacity = Math.max(size, counts.length * 2);
+			counts = Arrays.copyOf(counts, capacity);
+			countsEpochs = Arrays.copyOf(countsEpochs, capacity);
+			commitCounts = Arrays.copyOf(commitCounts, capacity);
+		}
+	}
+
+	public void observeCommit(String commit, int author, List<Integer> files)
+			throws IOException {
+		journalNewIds();
+		journal().commit(commit, author, files);
+		apply(author, files);
 		this.lastCommit = commit;
-		commitCounts.get(author).inc();
-		Map<Integer, Counter> theseCounts = counts.get(author);
-		for (int file : files) {
-			Counter counter = theseCounts.get(file);
-			if (counter == null) {
-				counter = new Counter();
-				theseCounts.put(file, counter);
-			}
-			counter.inc();
+	}
+
+	private void apply(int author, List<Integer> files) {
+		ensureAuthors(author + 1);
+		commitCounts[author]++;
+		frozenCommitCounts = null;
+		IntIntHashMap theseCounts = counts[author];
+		if (theseCounts == null) {
+			// first change to an author since the snapshot
+			theseCounts = copy(counts(author));
+			counts[author] = theseCounts;
 		}
+		countsEpochs[author] = epoch;
+		for (int file : files)
+			theseCounts.increment(file, 1);
+		coChanges.observe(files);
+		changed = true;
+	}
+
+	static IntIntHashMap copy(IntIntView view) {
+		IntIntHashMap result = new IntIntHashMap(view.size());
+		IntIntView.Cursor c = view.cursor();
+		while (c.next())
+			result.put(c.key(), c.value());
+		return result;
 	}
 
 	public List<String> authors() {
-		return Collections.unmodifiableList(authors);
+		return authors.list();
 	}
 
 	public List<String> files() {
-		return Collections.unmodifiableList(files);
+		return files.list();
 	}
 
+	public int commits(int author) {
+		return author < commitCounts.length ? commitCounts[author] : 0;
+	}
+
+	// one int per author, the same array for every caller until the next
+	// commit or author: do not modify
 	public int[] commitsPerAuthor() {
-		int[] result = new int[authors.size()];
-		for (int author = 0; author < result.length; author++)
-			result[author] = commitCounts.get(author).intValue();
-		return result;
+		if (frozenCommitCounts == null
+				|| frozenCommitCounts.length != authors.size())
+			frozenCommitCounts = Arrays.copyOf(commitCounts, authors.size());
+		return frozenCommitCounts;
 	}
 
-	public Map<Integer, Integer>[] counts() {
-		@SuppressWarnings("unchecked")
-		Map<Integer, Integer>[] result = new Map[authors.size()];
-		for (int author = 0; author < result.length; author++) {
-			Map<Integer, Integer> map = new HashMap<>();
-			for (Entry<Integer, Counter> e : counts.get(author).entrySet())
-				map.put(e.getKey(), e.getValue().intValue());
-			result[author] = map;
-		}
+	// author-id -> file-id -> counts, the live maps or mapped rows behind
+	// read-only views (only the array of references is built)
+	public IntIntView[] counts() {
+		IntIntView[] result = new IntIntView[authors.size()];
+		for (int author = 0; author < result.length; author++)
+			result[author] = counts(author);
 		return result;
 	}
 
-	public String lastCommit() {
-		return lastCommit;
+	public IntIntView counts(int author) {
+		if (author < counts.length && counts[author] != null)
+			return counts[author];
+		if (base != null && author < base.authors().size())
+			return base.counts().row(author);
+		return EMPTY; // no commits yet
 	}
 
-	public static class Counter {
-		private int count;
-
-		public Counter() {
-			this(0);
-		}
+	// rough number of bytes the DB holds in the heap, rows still in the
+	// memory-mapped snapshot are not counted
+	public long heapBytes() {
+		long bytes = 8L * counts.length + 4L * commitCounts.length;
+		for (IntIntHashMap row : counts)
+			if (row != null)
+				bytes += row.heapBytes();
+		return bytes + coChanges.heapBytes() + authors.heapBytes()
+				+ files.heapBytes();
+	}
 
-		public Counter(int count) {
-			this.count = count;
-		}
+	public CoChangeIndex coChanges() {
+		return coChanges;
+	}
 
-		public void inc() {
-			count++;
-		}
+	public File dataDir() {
+		return dataDir;
+	}
 
-		public int intValue() {
-			return count;
-		}
+	public String lastCommit() {
+		return lastCommit;
 	}
 
 	// transform a DB into input files for Mahout
@@ -254,25 +532,20 @@ public class DB {
 
 		// compute affinity for files as % of commits that touch that file
 		PrintWriter pw = new PrintWriter(args[1] + ".ratings");
-		for (int author : db.commitCounts.keySet()) {
-			double totalCommits = db.commitCounts.get(author).intValue();
-			if (!db.counts.containsKey(author)) {
-				System.err.println("Skipping unknown author '"
-						+ db.authors.get(author) + "' (" + author + ")");
-				continue;
-			}
-			for (Map.Entry<Integer, Counter> c : db.counts.get(author)
-					.entrySet()) {
-				pw.println(author + "\t" + c.getKey() + "\t"
-						+ ((c.getValue().intValue() / totalCommits) * 10000)
-						+ "\t" + c.getValue().intValue());
+		for (int author = 0; author < db.authors.size(); author++) {
+			double totalCommits = db.commits(author);
+			IntIntView.Cursor c = db.counts(author).cursor();
+			while (c.next()) {
+				pw.println(author + "\t" + c.key() + "\t"
+						+ ((c.value() / totalCommits) * 10000) + "\t"
+						+ c.value());
 			}
 		}
 		pw.close();
 
 		pw = new PrintWriter(args[1] + ".users");
 		int id = 1;
-		for (String author : db.authors) {
+		for (String author : db.authors()) {
 			pw.println(id + "\t" + author);
 			id++;
 		}
@@ -280,7 +553,7 @@ public class DB {
 
 		pw = new PrintWriter(args[1] + ".files");
 		id = 1;
-		for (String file : db.files) {
+		for (String file : db.files()) {
 			pw.println(id + "\t" + file);
 			id++;
 		}
@@ -0,0 +1,386 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.db;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// binary, memory-mapped DB snapshot. Opening it only reads the section
+// sizes, strings are decoded and rows are looked up on demand.
+//
+// layout (version 1, big-endian ints):
+// header: magic "GRDB", version, first journal segment not included in
+// this snapshot, lastCommit (length + UTF-8 bytes)
+// authors string table, files string table, counts CSR, co-change CSR
+// string table: count, byte length, offsets[count + 1], ids sorted by
+// their UTF-8 bytes[count], bytes
+// CSR: rows, entries, row totals[rows], row starts[rows + 1], (column,
+// value) pairs[entries] with the columns sorted within each row
+// the totals are commits per author for the counts and changes per file
+// for the co-change index
+public class DBFile {
+
+	public static final String NAME = "db.bin";
+
+	private static final int MAGIC = 0x47524442;
+
+	private static final int VERSION = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final int generation;
+	private final String lastCommit;
+	private final StringTable authors;
+	private final StringTable files;
+	private final Csr counts;
+	private final Csr coChanges;
+
+	private DBFile(ByteBuffer buffer) throws IOException {
+		if (buffer.getInt(0) != MAGIC)
+			throw new IOException("Not a gitrecommender DB");
+		int version = buffer.getInt(4);
+		if (version != VERSION)
+			throw new IOException("Unsupported DB version " + version);
+		this.generation = buffer.getInt(8);
+		int length = buffer.getInt(12);
+		byte[] bytes = new byte[length];
+		ByteBuffer dup = buffer.duplicate();
+		dup.position(16);
+		dup.get(bytes);
+		this.lastCommit = new String(bytes, UTF8);
+		int pos = 16 + length;
+		this.authors = new StringTable(buffer, pos);
+		this.files = new StringTable(buffer, authors.end);
+		this.counts = new Csr(buffer, files.end);
+		this.coChanges = new Csr(buffer, counts.end);
+	}
+
+	public static DBFile open(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			// the mapping stays valid after the channel is closed
+			MappedByteBuffer buffer = channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new DBFile(buffer);
+		}
+	}
+
+	public int generation() {
+		return generation;
+	}
+
+	public String lastCommit() {
+		return lastCommit;
+	}
+
+	public StringTable authors() {
+		return authors;
+	}
+
+	public StringTable files() {
+		return files;
+	}
+
+	public Csr counts() {
+		return counts;
+	}
+
+	public Csr coChanges() {
+		return coChanges;
+	}
+
+	// writes to a temporary file first, the target is replaced atomically
+	public static void write(File file, int generation, String lastCommit,
+			List<String> authors, List<String> files, int[] commitCounts,
+			IntIntView[] counts, int[] changes, IntIntView[] coChanges)
+			throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+				fos, 1 << 16));
+		try {
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeInt(generation);
+			byte[] bytes = lastCommit.getBytes(UTF8);
+			dos.writeInt(bytes.length);
+			dos.write(bytes);
+			writeStrings(dos, authors);
+			writeStrings(dos, files);
+			writeCsr(dos, commitCounts, counts);
+			writeCsr(dos, changes, coChanges);
+			// journal segments are deleted once this is in place
+			dos.flush();
+			fos.getFD().sync();
+		} finally {
+			dos.close();
+		}
+		if (!tmp.renameTo(file)) {
+			// some platforms won't rename over an existing file
+			file.delete();
+			if (!tmp.renameTo(file))
+				throw new IOException("Cannot replace " + file);
+		}
+	}
+
+	private static void writeStrings(DataOutputStream dos, List<String> strings)
+			throws IOException {
+		final byte[][] encoded = new byte[strings.size()][];
+		int length = 0;
+		for (int i = 0; i < encoded.length; i++) {
+			encoded[i] = strings.get(i).getBytes(UTF8);
+			length += encoded[i].length;
+		}
+		Integer[] sorted = new Integer[encoded.length];
+		for (int i = 0; i < sorted.length; i++)
+			sorted[i] = i;
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer i1, Integer i2) {
+				return compareBytes(encoded[i1], encoded[i2]);
+			}
+		});
+
+		dos.writeInt(encoded.length);
+		dos.writeInt(length);
+		int offset = 0;
+		dos.writeInt(offset);
+		for (byte[] e : encoded) {
+			offset += e.length;
+			dos.writeInt(offset);
+		}
+		for (int id : sorted)
+			dos.writeInt(id);
+		for (byte[] e : encoded)
+			dos.write(e);
+	}
+
+	private static int compareBytes(byte[] b1, byte[] b2) {
+		int len = Math.min(b1.length, b2.length);
+		for (int i = 0; i < len; i++) {
+			int cmp = (b1[i] & 0xff) - (b2[i] & 0xff);
+			if (cmp != 0)
+				return cmp;
+		}
+		return b1.length - b2.length;
+	}
+
+	private static void writeCsr(DataOutputStream dos, int[] totals,
+			IntIntView[] rows) throws IOException {
+		int entries = 0;
+		for (IntIntView row : rows)
+			entries += row == null ? 0 : row.size();
+		dos.writeInt(rows.length);
+		dos.writeInt(entries);
+		for (int total : totals)
+			dos.writeInt(total);
+		int start = 0;
+		dos.writeInt(start);
+		for (IntIntView row : rows) {
+			start += row == null ? 0 : row.size();
+			dos.writeInt(start);
+		}
+
+		// columns are sorted so rows can be searched without a hash
+		for (IntIntView row : rows) {
+			if (row == null)
+				continue;
+			long[] pairs = new long[row.size()];
+			IntIntView.Cursor c = row.cursor();
+			int pos = 0;
+			while (c.next())
+				pairs[pos++] = (long) c.key() << 32 | (c.value() & 0xffffffffL);
+			Arrays.sort(pairs);
+			for (long pair : pairs) {
+				dos.writeInt((int) (pair >>> 32));
+				dos.writeInt((int) pair);
+			}
+		}
+	}
+
+	// read-only list of strings over the mapped buffer
+	public static class StringTable extends AbstractList<String> {
+		private final ByteBuffer buffer;
+		private final int count;
+		private final int offsets;
+		private final int sorted;
+		private final int bytes;
+		final int end;
+
+		StringTable(ByteBuffer buffer, int pos) {
+			this.buffer = buffer;
+			this.count = buffer.getInt(pos);
+			int length = buffer.getInt(pos + 4);
+			this.offsets = pos + 8;
+			this.sorted = offsets + 4 * (count + 1);
+			this.bytes = sorted + 4 * count;
+			this.end = bytes + length;
+		}
+
+		public int size() {
+			return count;
+		}
+
+		public String get(int id) {
+			return new String(bytes(id), UTF8);
+		}
+
+		private byte[] bytes(int id) {
+			int start = buffer.getInt(offsets + 4 * id);
+			int stop = buffer.getInt(offsets + 4 * (id + 1));
+			byte[] result = new byte[stop - start];
+			ByteBuffer dup = buffer.duplicate();
+			dup.position(bytes + start);
+			dup.get(result);
+			return result;
+		}
+
+		// binary search over the sorted ids, -1 if not present
+		public int id(String string) {
+			byte[] key = string.getBytes(UTF8);
+			int low = 0;
+			int high = count - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int id = buffer.getInt(sorted + 4 * mid);
+				int cmp = compareBytes(bytes(id), key);
+				if (cmp < 0)
+					low = mid + 1;
+				else if (cmp > 0)
+					high = mid - 1;
+				else
+					return id;
+			}
+			return -1;
+		}
+	}
+
+	// compressed sparse rows over the mapped buffer
+	public static class Csr {
+		private final ByteBuffer buffer;
+		private final int rows;
+		private final int entries;
+		private final int totals;
+		private final int starts;
+		private final int pairs;
+		final int end;
+
+		Csr(ByteBuffer buffer, int pos) {
+			this.buffer = buffer;
+			this.rows = buffer.getInt(pos);
+			this.entries = buffer.getInt(pos + 4);
+			this.totals = pos + 8;
+			this.starts = totals + 4 * rows;
+			this.pairs = starts + 4 * (rows + 1);
+			this.end = pairs + 8 * entries;
+		}
+
+		public int rows() {
+			return rows;
+		}
+
+		public int entries() {
+			return entries;
+		}
+
+		public int total(int row) {
+			return buffer.getInt(totals + 4 * row);
+		}
+
+		public int[] totals() {
+			int[] result = new int[rows];
+			for (int r = 0; r < rows; r++)
+				result[r] = total(r);
+			return result;
+		}
+
+		public IntIntView row(int row) {
+			return new Row(buffer.getInt(starts + 4 * row), buffer.getInt(starts
+					+ 4 * (row + 1)));
+		}
+
+		private class Row implements IntIntView {
+			private final int start;
+			private final int stop;
+
+			Row(int start, int stop) {
+				this.start = start;
+				this.stop = stop;
+			}
+
+			public int size() {
+				return stop - start;
+			}
+
+			private int find(int key) {
+				int low = start;
+				int high = stop - 1;
+				while (low <= high) {
+					int mid = (low + high) >>> 1;
+					int col = buffer.getInt(pairs + 8 * mid);
+					if (col < key)
+						low = mid + 1;
+					else if (col > key)
+						high = mid - 1;
+					else
+						return mid;
+				}
+				return -1;
+			}
+
+			public int get(int key) {
+				int entry = find(key);
+				return entry < 0 ? 0 : buffer.getInt(pairs + 8 * entry + 4);
+			}
+
+			public boolean containsKey(int key) {
+				return find(key) >= 0;
+			}
+
+			public Cursor cursor() {
+				return new Cursor() {
+					private int entry = start - 1;
+
+					public boolean next() {
+						return ++entry < stop;
+					}
+
+					public int key() {
+						return buffer.getInt(pairs + 8 * entry);
+					}
+
+					public int value() {
+						return buffer.getInt(pairs + 8 * entry + 4);
+					}
+				};
+			}
+		}
+	}
+}
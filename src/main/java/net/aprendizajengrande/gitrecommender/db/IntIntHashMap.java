@@ -0,0 +1,167 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.db;
+
+import java.util.Arrays;
+
+// open-addressing (linear probing) map from non-negative ints to ints, two
+// parallel arrays and no per-entry objects
+// this class is not thread-safe
+public class IntIntHashMap implements IntIntView {
+
+	private static final int FREE = -1;
+
+	private int[] keys;
+	private int[] values;
+	private int size;
+
+	public IntIntHashMap() {
+		this(4);
+	}
+
+	public IntIntHashMap(int expected) {
+		int capacity = 8;
+		while (capacity * 3 / 4 <= expected)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		Arrays.fill(keys, FREE);
+		values = new int[capacity];
+	}
+
+	private int slot(int key) {
+		int mask = keys.length - 1;
+		int hash = key * 0x9E3779B9;
+		int slot = (hash ^ hash >>> 16) & mask;
+		while (keys[slot] != FREE && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int get(int key) {
+		int slot = slot(key);
+		return keys[slot] == FREE ? 0 : values[slot];
+	}
+
+	public boolean containsKey(int key) {
+		return keys[slot(key)] != FREE;
+	}
+
+	public void put(int key, int value) {
+		if (key < 0)
+			throw new IllegalArgumentException("Negative key: " + key);
+		int slot = slot(key);
+		if (keys[slot] == FREE) {
+			if ((size + 1) * 4 > keys.length * 3) {
+				rehash(keys.length << 1);
+				slot = slot(key);
+			}
+			keys[slot] = key;
+			size++;
+		}
+		values[slot] = value;
+	}
+
+	// returns the new value
+	public int increment(int key, int delta) {
+		if (key < 0)
+			throw new IllegalArgumentException("Negative key: " + key);
+		int slot = slot(key);
+		if (keys[slot] == FREE) {
+			if ((size + 1) * 4 > keys.length * 3) {
+				rehash(keys.length << 1);
+				slot = slot(key);
+			}
+			keys[slot] = key;
+			size++;
+		}
+		return values[slot] += delta;
+	}
+
+	// returns the value removed, 0 if there was none
+	public int remove(int key) {
+		int slot = slot(key);
+		if (keys[slot] == FREE)
+			return 0;
+		int result = values[slot];
+		// move back the entries after it that would no longer be found
+		int mask = keys.length - 1;
+		int free = slot;
+		for (int next = (free + 1) & mask; keys[next] != FREE; next = (next + 1)
+				& mask) {
+			int hash = keys[next] * 0x9E3779B9;
+			int home = (hash ^ hash >>> 16) & mask;
+			// can it move to the free slot without passing its home?
+			if (((next - home) & mask) >= ((next - free) & mask)) {
+				keys[free] = keys[next];
+				values[free] = values[next];
+				free = next;
+			}
+		}
+		keys[free] = FREE;
+		values[free] = 0;
+		size--;
+		return result;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++)
+			if (oldKeys[i] != FREE) {
+				int slot = slot(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+	}
+
+	// rough size of the arrays, for cache accounting
+	long heapBytes() {
+		return 32 + 8L * keys.length;
+	}
+
+	public Cursor cursor() {
+		return new Cursor() {
+			private int slot = -1;
+
+			public boolean next() {
+				do
+					slot++;
+				while (slot < keys.length && keys[slot] == FREE);
+				return slot < keys.length;
+			}
+
+			public int key() {
+				return keys[slot];
+			}
+
+			public int value() {
+				return values[slot];
+			}
+		};
+	}
+}
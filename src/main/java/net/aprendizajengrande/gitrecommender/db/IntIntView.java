@@ -0,0 +1,43 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.db;
+
+// read-only view of a sparse int -> int map (ids to counts), handed out by
+// the DB without copying or boxing. Missing keys have a value of zero.
+public interface IntIntView {
+
+	public int size();
+
+	public int get(int key);
+
+	public boolean containsKey(int key);
+
+	// iteration order is unspecified
+	public Cursor cursor();
+
+	public interface Cursor {
+
+		// advances to the next entry, false when there are no more
+		public boolean next();
+
+		public int key();
+
+		public int value();
+	}
+}
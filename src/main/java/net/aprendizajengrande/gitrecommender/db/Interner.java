@@ -0,0 +1,129 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.db;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// string <-> id mapping. Ids below the size of the base table are looked up
+// in the mapped DB file, only strings added afterwards (or looked up) are
+// kept in the heap.
+// lookups of known strings don't lock, adding a new one takes the lock of
+// this object to assign the next id
+class Interner {
+
+	private final DBFile.StringTable base;
+	private final int baseSize;
+
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+	// strings with ids from baseSize on, published through count
+	private volatile String[] strings = new String[16];
+	private volatile int count = 0;
+
+	Interner() {
+		this(null);
+	}
+
+	Interner(DBFile.StringTable base) {
+		this.base = base;
+		this.baseSize = base == null ? 0 : base.size();
+	}
+
+	int id(String string) {
+		Integer result = idOrNull(string);
+		if (result == null)
+			result = add(string);
+		return result;
+	}
+
+	private synchronized int add(String string) {
+		Integer result = ids.get(string);
+		if (result != null)
+			return result; // added while we waited
+		if (count == strings.length)
+			strings = Arrays.copyOf(strings, count * 2);
+		strings[count] = string;
+		int id = baseSize + count;
+		count++;
+		ids.put(string, id);
+		return id;
+	}
+
+	Integer idOrNull(String string) {
+		Integer result = ids.get(string);
+		if (result == null && base != null) {
+			int id = base.id(string);
+			if (id >= 0) {
+				// the binary search decodes strings, remember the answer
+				result = id;
+				ids.putIfAbsent(string, result);
+			}
+		}
+		return result;
+	}
+
+	int size() {
+		return baseSize + count;
+	}
+
+	// rough size of the strings added and of the lookup table, for cache
+	// accounting
+	long heapBytes() {
+		long bytes = 16 + 8L * strings.length;
+		for (int i = 0; i < count; i++)
+			bytes += 40 + 2L * strings[i].length();
+		return bytes + 64L * ids.size();
+	}
+
+	String get(int id) {
+		return id < baseSize ? base.get(id) : strings[id - baseSize];
+	}
+
+	// the strings as of now, can be read from another thread while new ones
+	// are added
+	List<String> snapshot() {
+		final int size = size();
+		final String[] added = strings;
+		return new AbstractList<String>() {
+			public String get(int id) {
+				return id < baseSize ? base.get(id) : added[id - baseSize];
+			}
+
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	// read-only, live view
+	List<String> list() {
+		return new AbstractList<String>() {
+			public String get(int id) {
+				return Interner.this.get(id);
+			}
+
+			public int size() {
+				return Interner.this.size();
+			}
+		};
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// append-only log of the changes to a DB since its last snapshot, replayed
+// when the DB is opened. It is split in segments (journal.<n>), a new one
+// is started at each checkpoint and the ones before it are deleted when the
+// snapshot covering them is in place (see DBFile.generation()).
+//
+// each record is: payload length, CRC32 of the payload, payload
+// payload: AUTHOR id name | FILE id name | COMMIT name author count files
+// a torn record at the end of the last segment (from a crash) is ignored
+// this class is not thread-safe
+class Journal {
+
+	private static final String PREFIX = "journal.";
+
+	private static final byte AUTHOR = 1;
+	private static final byte FILE = 2;
+	private static final byte COMMIT = 3;
+
+	// handles replayed records
+	interface Listener {
+		void author(int id, String name) throws IOException;
+
+		void file(int id, String name) throws IOException;
+
+		void commit(String name, int author, List<Integer> files)
+				throws IOException;
+	}
+
+	private final File dir;
+	private int segment;
+	private FileOutputStream fos;
+	private DataOutputStream out;
+
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+	private final DataOutputStream recordOut = new DataOutputStream(record);
+	private final CRC32 crc = new CRC32();
+
+	// appends to the given segment, dropping anything after validLength
+	Journal(File dir, int segment, long validLength) throws IOException {
+		this.dir = dir;
+		this.segment = segment;
+		File file = segmentFile(dir, segment);
+		if (file.exists() && file.length() > validLength) {
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.setLength(validLength);
+			}
+		}
+		open();
+	}
+
+	private void open() throws IOException {
+		fos = new FileOutputStream(segmentFile(dir, segment), true);
+		out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+	}
+
+	static File segmentFile(File dir, int segment) {
+		return new File(dir, PREFIX + segment);
+	}
+
+	// segment numbers present in the directory, at or after the given one
+	static List<Integer> segments(File dir, int from) {
+		List<Integer> result = new ArrayList<>();
+		String[] names = dir.list();
+		if (names == null)
+			return result;
+		for (String name : names) {
+			if (!name.startsWith(PREFIX))
+				continue;
+			try {
+				int segment = Integer.parseInt(name.substring(PREFIX.length()));
+				if (segment >= from)
+					result.add(segment);
+			} catch (NumberFormatException e) {
+				// not ours
+			}
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	static void deleteBefore(File dir, int segment) {
+		String[] names = dir.list();
+		if (names == null)
+			return;
+		for (String name : names) {
+			if (!name.startsWith(PREFIX))
+				continue;
+			try {
+				if (Integer.parseInt(name.substring(PREFIX.length())) < segment)
+					new File(dir, name).delete();
+			} catch (NumberFormatException e) {
+				// not ours
+			}
+		}
+	}
+
+	// returns the length of the valid prefix of the segment
+	static long replay(File file, Listener listener) throws IOException {
+		long valid = 0;
+		FileInputStream fis;
+		try {
+			fis = new FileInputStream(file);
+		} catch (FileNotFoundException e) {
+			// listed, then deleted by a checkpoint
+			throw new JournalMismatchException("Journal segment " + file
+					+ " was deleted");
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				fis, 1 << 16))) {
+			// from the open file, the name may be gone by now
+			long size = fis.getChannel().size();
+			CRC32 crc = new CRC32();
+			while (true) {
+				int length;
+				long checksum;
+				byte[] payload;
+				try {
+					length = in.readInt();
+					checksum = in.readInt() & 0xffffffffL;
+					if (length <= 0 || length > size - valid - 8)
+						break;
+					payload = new byte[length];
+					in.readFully(payload);
+				} catch (EOFException e) {
+					break;
+				}
+				crc.reset();
+				crc.update(payload);
+				if (crc.getValue() != checksum)
+					break;
+
+				DataInputStream rec = new DataInputStream(
+						new ByteArrayInputStream(payload));
+				byte type = rec.readByte();
+				if (type == AUTHOR)
+					listener.author(rec.readInt(), rec.readUTF());
+				else if (type == FILE)
+					listener.file(rec.readInt(), rec.readUTF());
+				else if (type == COMMIT) {
+					String name = rec.readUTF();
+					int author = rec.readInt();
+					int count = rec.readInt();
+					List<Integer> files = new ArrayList<>(count);
+					for (int i = 0; i < count; i++)
+						files.add(rec.readInt());
+					listener.commit(name, author, files);
+				} else
+					throw new IOException("Unknown journal record " + type
+							+ " in " + file);
+				valid += 8 + length;
+			}
+		}
+		return valid;
+	}
+
+	void author(int id, String name) throws IOException {
+		recordOut.writeByte(AUTHOR);
+		recordOut.writeInt(id);
+		recordOut.writeUTF(name);
+		append();
+	}
+
+	void file(int id, String name) throws IOException {
+		recordOut.writeByte(FILE);
+		recordOut.writeInt(id);
+		recordOut.writeUTF(name);
+		append();
+	}
+
+	void commit(String name, int author, List<Integer> files)
+			throws IOException {
+		recordOut.writeByte(COMMIT);
+		recordOut.writeUTF(name);
+		recordOut.writeInt(author);
+		recordOut.writeInt(files.size());
+		for (int file : files)
+			recordOut.writeInt(file);
+		append();
+		// hand it to the OS, so only a machine crash can lose it
+		out.flush();
+	}
+
+	private void append() throws IOException {
+		recordOut.flush();
+		crc.reset();
+		crc.update(record.toByteArray());
+		out.writeInt(record.size());
+		out.writeInt((int) crc.getValue());
+		record.writeTo(out);
+		record.reset();
+	}
+
+	// flushes and forces to disk
+	void sync() throws IOException {
+		out.flush();
+		fos.getFD().sync();
+	}
+
+	// closes the current segment and starts the next one, returns its number
+	int rotate() throws IOException {
+		sync();
+		out.close();
+		segment++;
+		open();
+		return segment;
+	}
+
+	void close() throws IOException {
+		sync();
+		out.close();
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.reco;
+
+import java.util.List;
+
+import net.aprendizajengrande.gitrecommender.db.CoChangeIndex;
+import net.aprendizajengrande.gitrecommender.db.IntIntView;
+
+// merges the neighbour lists of the seeds in the co-change index, each
+// neighbour scored by the confidence of the rule seed => neighbour
+// (commits changing both / commits changing the seed), summed over seeds
+public class CoChangeRecommender implements Recommender {
+
+	private final CoChangeIndex index;
+
+	private final int fileCount;
+
+	public CoChangeRecommender(CoChangeIndex index, int fileCount) {
+		this.index = index;
+		this.fileCount = fileCount;
+	}
+
+	public List<ScoredFile> recommend(int[] seedFiles, int howMany) {
+		float[] scores = new float[fileCount];
+		int[] candidates = new int[fileCount];
+		int candidateCount = 0;
+		for (int seed : seedFiles) {
+			int changes = index.changes(seed);
+			if (changes == 0)
+				continue;
+			IntIntView.Cursor c = index.neighbours(seed).cursor();
+			while (c.next()) {
+				int file = c.key();
+				if (scores[file] == 0f)
+					candidates[candidateCount++] = file;
+				scores[file] += c.value() / (float) changes;
+			}
+		}
+		return ScoredFile.topN(scores, candidates, candidateCount, seedFiles,
+				howMany);
+	}
+
+	// rough size of the index rows in the heap
+	public long heapBytes() {
+		return index.heapBytes();
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.reco;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.aprendizajengrande.gitrecommender.db.DB;
+import net.aprendizajengrande.gitrecommender.db.IntIntView;
+
+// in-memory equivalent of running Mahout's RecommenderJob with boolean data
+// over the author x file matrix: two files are similar if the same authors
+// touched them. Similarities are computed at query time from the inverted
+// index, only for the files reachable from the seeds. Once built it doesn't
+// change, a recommender for more commits can be derived from it (see
+// update).
+public class ItemBasedRecommender implements Recommender {
+
+	public enum Similarity {
+		// number of authors that touched both files, normalized by the
+		// number of authors of each one (SIMILARITY_COSINE with booleanData)
+		COSINE,
+		// raw number of authors that touched both files
+		COOCCURRENCE
+	}
+
+	private final Similarity similarity;
+
+	// author-id -> files touched by that author
+	private final int[][] authorFiles;
+
+	// file-id -> authors that touched that file
+	private final int[][] fileAuthors;
+
+	// author-id -> commits, as of the counts the indices come from
+	private final int[] commits;
+
+	private static final int[] NONE = new int[0];
+
+	public ItemBasedRecommender(DB db, Similarity similarity) {
+		this(db.commitsPerAuthor(), db.counts(), db.files().size(), similarity);
+	}
+
+	public ItemBasedRecommender(int[] commitsPerAuthor, IntIntView[] counts,
+			int fileCount, Similarity similarity) {
+		this.similarity = similarity;
+		this.commits = Arrays.copyOf(commitsPerAuthor, commitsPerAuthor.length);
+		this.authorFiles = new int[commitsPerAuthor.length][];
+		int[] authorsPerFile = new int[fileCount];
+		for (int author = 0; author < authorFiles.length; author++) {
+			int[] files = new int[counts[author].size()];
+			int pos = 0;
+			IntIntView.Cursor c = counts[author].cursor();
+			while (c.next()) {
+				files[pos++] = c.key();
+				authorsPerFile[c.key()]++;
+			}
+			authorFiles[author] = files;
+		}
+		this.fileAuthors = new int[fileCount][];
+		for (int file = 0; file < fileCount; file++)
+			fileAuthors[file] = new int[authorsPerFile[file]];
+		int[] fill = new int[fileCount];
+		for (int author = 0; author < authorFiles.length; author++)
+			for (int file : authorFiles[author])
+				fileAuthors[file][fill[file]++] = author;
+	}
+
+	private ItemBasedRecommender(Similarity similarity, int[] commits,
+			int[][] authorFiles, int[][] fileAuthors) {
+		this.similarity = similarity;
+		this.commits = commits;
+		this.authorFiles = authorFiles;
+		this.fileAuthors = fileAuthors;
+	}
+
+	public ItemBasedRecommender update(DB db) {
+		return update(db.commitsPerAuthor(), db.counts(), db.files().size());
+	}
+
+	// as below, for the authors with commits since this one was built
+	public ItemBasedRecommender update(DB db, int[] changedAuthors) {
+		return update(db.commitsPerAuthor(), db.counts(), db.files().size(),
+				changedAuthors);
+	}
+
+	// as below, finding the authors with new commits by comparing every
+	// author's commit count
+	public ItemBasedRecommender update(int[] commitsPerAuthor,
+			IntIntView[] counts, int fileCount) {
+		int[] changed = new int[16];
+		int changedCount = 0;
+		int known = Math.min(commits.length, commitsPerAuthor.length);
+		for (int author = 0; author < known; author++)
+			if (commitsPerAuthor[author] != commits[author]) {
+				if (changedCount == changed.length)
+					changed = Arrays.copyOf(changed, changedCount * 2);
+				changed[changedCount++] = author;
+			}
+		return update(commitsPerAuthor, counts, fileCount, Arrays.copyOf(
+				changed, changedCount));
+	}
+
+	// a recommender for the same DB after more commits, sharing the rows of
+	// the authors without new commits and of the files without new authors
+	// with this one. changedAuthors (sorted) has every author known to this
+	// one with commits since it was built, only their rows and those of new
+	// authors are looked at. Counts only grow, so an author with new commits
+	// can only have touched new files; if they went down (a different DB) it
+	// is built from scratch
+	public ItemBasedRecommender update(int[] commitsPerAuthor,
+			IntIntView[] counts, int fileCount, int[] changedAuthors) {
+		int authorCount = commitsPerAuthor.length;
+		if (authorCount < commits.length || fileCount < fileAuthors.length)
+			return new ItemBasedRecommender(commitsPerAuthor, counts,
+					fileCount, similarity);
+		for (int author : changedAuthors)
+			if (author < commits.length
+					&& commitsPerAuthor[author] < commits[author])
+				return new ItemBasedRecommender(commitsPerAuthor, counts,
+						fileCount, similarity);
+
+		int[][] newAuthorFiles = Arrays.copyOf(authorFiles, authorCount);
+		// authors gained by each file, as (author, file) pairs
+		int[] newAuthors = new int[fileCount];
+		int[] pairs = new int[16];
+		int pairCount = 0;
+		int[] gained = new int[16];
+		int gainedCount = 0;
+		// file -> last author touching it before, to tell new files apart
+		int[] before = new int[fileCount];
+		Arrays.fill(before, -1);
+		// the changed authors known before, then every new one
+		int known = 0;
+		while (known < changedAuthors.length
+				&& changedAuthors[known] < commits.length)
+			known++;
+		for (int i = 0; i < known + authorCount - commits.length; i++) {
+			int author = i < known ? changedAuthors[i] : commits.length + i
+					- known;
+			int[] old = author < commits.length ? authorFiles[author] : NONE;
+			for (int file : old)
+				before[file] = author;
+			int[] files = new int[counts[author].size()];
+			int pos = 0;
+			IntIntView.Cursor c = counts[author].cursor();
+			while (c.next()) {
+				int file = c.key();
+				files[pos++] = file;
+				if (before[file] != author) {
+					if (pairCount + 2 > pairs.length)
+						pairs = Arrays.copyOf(pairs, pairs.length * 2);
+					pairs[pairCount++] = author;
+					pairs[pairCount++] = file;
+					if (newAuthors[file]++ == 0) {
+						if (gainedCount == gained.length)
+							gained = Arrays.copyOf(gained, gainedCount * 2);
+						gained[gainedCount++] = file;
+					}
+				}
+			}
+			newAuthorFiles[author] = files;
+		}
+
+		int[][] newFileAuthors = Arrays.copyOf(fileAuthors, fileCount);
+		for (int file = 0; file < fileCount; file++) {
+			int[] old = file < fileAuthors.length ? fileAuthors[file] : NONE;
+			if (newAuthors[file] > 0)
+				newFileAuthors[file] = Arrays.copyOf(old, old.length
+						+ newAuthors[file]);
+			else if (file >= fileAuthors.length)
+				newFileAuthors[file] = NONE;
+		}
+		for (int i = 0; i < pairCount; i += 2) {
+			int file = pairs[i + 1];
+			int[] row = newFileAuthors[file];
+			row[row.length - newAuthors[file]--] = pairs[i];
+		}
+		// in author order, as when built from scratch
+		for (int i = 0; i < gainedCount; i++)
+			Arrays.sort(newFileAuthors[gained[i]]);
+		return new ItemBasedRecommender(similarity, Arrays.copyOf(
+				commitsPerAuthor, authorCount), newAuthorFiles, newFileAuthors);
+	}
+
+	public List<ScoredFile> recommend(int[] seedFiles, int howMany) {
+		int fileCount = fileAuthors.length;
+		float[] scores = new float[fileCount];
+		int[] cooccurrences = new int[fileCount];
+		// files reached from any seed, so the top-N scan is sparse
+		int[] candidates = new int[fileCount];
+		int candidateCount = 0;
+		int[] reached = new int[fileCount];
+
+		for (int seed : seedFiles) {
+			if (seed < 0 || seed >= fileCount)
+				continue;
+			int reachedCount = 0;
+			for (int author : fileAuthors[seed])
+				for (int file : authorFiles[author])
+					if (cooccurrences[file]++ == 0)
+						reached[reachedCount++] = file;
+
+			double seedNorm = Math.sqrt(fileAuthors[seed].length);
+			for (int i = 0; i < reachedCount; i++) {
+				int file = reached[i];
+				if (file != seed) {
+					if (scores[file] == 0f)
+						candidates[candidateCount++] = file;
+					scores[file] += similarity(cooccurrences[file], seedNorm,
+							fileAuthors[file].length);
+				}
+				cooccurrences[file] = 0;
+			}
+		}
+
+		return ScoredFile.topN(scores, candidates, candidateCount, seedFiles,
+				howMany);
+	}
+
+	// rough size of both indices
+	public long heapBytes() {
+		long bytes = 16L * (authorFiles.length + fileAuthors.length);
+		for (int[] files : authorFiles)
+			bytes += 4L * files.length;
+		for (int[] authors : fileAuthors)
+			bytes += 4L * authors.length;
+		return bytes;
+	}
+
+	private float similarity(int cooccurrence, double seedNorm, int authors) {
+		switch (similarity) {
+		case COOCCURRENCE:
+			return cooccurrence;
+		default:
+			return (float) (cooccurrence / (seedNorm * Math.sqrt(authors)));
+		}
+	}
+}
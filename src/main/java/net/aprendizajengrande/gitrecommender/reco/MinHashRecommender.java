@@ -0,0 +1,208 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.reco;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.aprendizajengrande.gitrecommender.db.DB;
+import net.aprendizajengrande.gitrecommender.db.IntIntView;
+
+// approximate item-based recommender for repositories too large to compare
+// files exactly: each file gets a MinHash signature of the set of authors
+// (or commits) that touched it, files whose signatures agree on every row of
+// a band are candidate neighbours (locality sensitive hashing), scored by
+// the share of the signature they agree on, an estimate of the Jaccard
+// similarity of their sets, summed over seeds. More rows per band keep
+// fewer, closer candidates, more bands miss fewer of them, and both take
+// memory.
+public class MinHashRecommender implements Recommender {
+
+	public static final int BANDS = 16;
+
+	public static final int ROWS = 4;
+
+	// files of a bucket scored per seed and band, files touched by a single
+	// author all fall in the same one
+	private static final int MAX_BUCKET = 1000;
+
+	private final int bands;
+	private final int rows;
+	private final int hashes;
+	private final int fileCount;
+
+	// file * hashes + hash -> smallest hash of its elements
+	private final int[] signatures;
+
+	// files touched by any element, the rest have no signature
+	private final boolean[] touched;
+
+	// per band, (bucket key << 32 | file) of the touched files, sorted
+	private final long[][] buckets;
+
+	public MinHashRecommender(DB db, int bands, int rows) {
+		this(authorFiles(db.counts()), db.files().size(), bands, rows, 42L);
+	}
+
+	// sets has the files touched by each element, authors or commits
+	public MinHashRecommender(int[][] sets, int fileCount, int bands,
+			int rows, long seed) {
+		this.bands = bands;
+		this.rows = rows;
+		this.hashes = bands * rows;
+		this.fileCount = fileCount;
+		this.signatures = new int[fileCount * hashes];
+		this.touched = new boolean[fileCount];
+		Arrays.fill(signatures, Integer.MAX_VALUE);
+
+		long[] salts = new long[hashes];
+		Random random = new Random(seed);
+		for (int h = 0; h < hashes; h++)
+			salts[h] = random.nextLong();
+		int[] values = new int[hashes];
+		for (int element = 0; element < sets.length; element++) {
+			if (sets[element].length == 0)
+				continue;
+			for (int h = 0; h < hashes; h++)
+				values[h] = mix(element * 0x9E3779B97F4A7C15L + salts[h]);
+			for (int file : sets[element]) {
+				touched[file] = true;
+				int base = file * hashes;
+				for (int h = 0; h < hashes; h++)
+					if (values[h] < signatures[base + h])
+						signatures[base + h] = values[h];
+			}
+		}
+
+		int touchedCount = 0;
+		for (int file = 0; file < fileCount; file++)
+			if (touched[file])
+				touchedCount++;
+		this.buckets = new long[bands][];
+		for (int band = 0; band < bands; band++) {
+			long[] bucket = new long[touchedCount];
+			int pos = 0;
+			for (int file = 0; file < fileCount; file++)
+				if (touched[file])
+					bucket[pos++] = ((long) bandKey(file, band) << 32) | file;
+			Arrays.sort(bucket);
+			buckets[band] = bucket;
+		}
+	}
+
+	// author-id -> files touched
+	public static int[][] authorFiles(IntIntView[] counts) {
+		int[][] sets = new int[counts.length][];
+		for (int author = 0; author < counts.length; author++) {
+			int[] files = new int[counts[author].size()];
+			int pos = 0;
+			IntIntView.Cursor c = counts[author].cursor();
+			while (c.next())
+				files[pos++] = c.key();
+			sets[author] = files;
+		}
+		return sets;
+	}
+
+	public List<ScoredFile> recommend(int[] seedFiles, int howMany) {
+		float[] scores = new float[fileCount];
+		int[] candidates = new int[fileCount];
+		int candidateCount = 0;
+		// the seed (plus one) a file was last scored for, once per seed
+		// even if it shares several bands with it
+		int[] scoredFor = new int[fileCount];
+
+		for (int s = 0; s < seedFiles.length; s++) {
+			int seed = seedFiles[s];
+			if (seed < 0 || seed >= fileCount || !touched[seed])
+				continue;
+			for (int band = 0; band < bands; band++) {
+				long[] bucket = buckets[band];
+				int key = bandKey(seed, band);
+				int start = lowerBound(bucket, key);
+				int end = Math.min(bucket.length, start + MAX_BUCKET);
+				for (int i = start; i < end
+						&& (int) (bucket[i] >> 32) == key; i++) {
+					int file = (int) bucket[i];
+					if (file == seed || scoredFor[file] == s + 1)
+						continue;
+					scoredFor[file] = s + 1;
+					if (scores[file] == 0f)
+						candidates[candidateCount++] = file;
+					scores[file] += agreement(seed, file);
+				}
+			}
+		}
+		return ScoredFile.topN(scores, candidates, candidateCount, seedFiles,
+				howMany);
+	}
+
+	// rough size of the signatures and buckets
+	public long heapBytes() {
+		long bytes = 4L * signatures.length + touched.length;
+		for (long[] bucket : buckets)
+			bytes += 16 + 8L * bucket.length;
+		return bytes;
+	}
+
+	// share of the signature two files agree on
+	private float agreement(int a, int b) {
+		int baseA = a * hashes;
+		int baseB = b * hashes;
+		int same = 0;
+		for (int h = 0; h < hashes; h++)
+			if (signatures[baseA + h] == signatures[baseB + h])
+				same++;
+		return same / (float) hashes;
+	}
+
+	private int bandKey(int file, int band) {
+		long key = band;
+		int base = file * hashes + band * rows;
+		for (int r = 0; r < rows; r++)
+			key = key * 0x100000001B3L + signatures[base + r];
+		return mix(key);
+	}
+
+	// first position with the given bucket key, or where it would be
+	private static int lowerBound(long[] bucket, int key) {
+		long target = (long) key << 32;
+		int low = 0;
+		int high = bucket.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (bucket[mid] < target)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	// the 64-bit finalizer of MurmurHash3
+	private static int mix(long x) {
+		x ^= x >>> 33;
+		x *= 0xff51afd7ed558ccdL;
+		x ^= x >>> 33;
+		x *= 0xc4ceb9fe1a85ec53L;
+		x ^= x >>> 33;
+		return (int) x;
+	}
+}
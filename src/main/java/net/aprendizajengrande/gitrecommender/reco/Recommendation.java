@@ -0,0 +1,44 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.reco;
+
+// a recommended file by path, as handed out of the DB (see ScoredFile for
+// the ids the recommenders work with)
+public class Recommendation {
+
+	private final String file;
+	private final float score;
+
+	public Recommendation(String file, float score) {
+		this.file = file;
+		this.score = score;
+	}
+
+	public String file() {
+		return file;
+	}
+
+	public float score() {
+		return score;
+	}
+
+	public String toString() {
+		return file + "\t" + score;
+	}
+}
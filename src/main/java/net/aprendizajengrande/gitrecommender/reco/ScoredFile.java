@@ -0,0 +1,84 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.reco;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+public class ScoredFile implements Comparable<ScoredFile> {
+
+	private final int file;
+	private final float score;
+
+	public ScoredFile(int file, float score) {
+		this.file = file;
+		this.score = score;
+	}
+
+	public int file() {
+		return file;
+	}
+
+	public float score() {
+		return score;
+	}
+
+	// worst first, ties broken by file id so results are deterministic
+	public int compareTo(ScoredFile other) {
+		int cmp = Float.compare(score, other.score);
+		if (cmp != 0)
+			return cmp;
+		return Integer.compare(other.file, file);
+	}
+
+	public String toString() {
+		return file + ":" + score;
+	}
+
+	// picks the top entries from a dense score array, skipping zeros and
+	// the excluded files (usually the seeds)
+	public static List<ScoredFile> topN(float[] scores, int[] candidates,
+			int candidateCount, int[] exclude, int howMany) {
+		PriorityQueue<ScoredFile> heap = new PriorityQueue<>(howMany + 1);
+		for (int i = 0; i < candidateCount; i++) {
+			int file = candidates[i];
+			float score = scores[file];
+			if (score <= 0f || contains(exclude, file))
+				continue;
+			if (heap.size() < howMany)
+				heap.add(new ScoredFile(file, score));
+			else if (heap.peek().score < score) {
+				heap.poll();
+				heap.add(new ScoredFile(file, score));
+			}
+		}
+		List<ScoredFile> result = new ArrayList<>(heap);
+		Collections.sort(result, Collections.reverseOrder());
+		return result;
+	}
+
+	private static boolean contains(int[] array, int value) {
+		for (int v : array)
+			if (v == value)
+				return true;
+		return false;
+	}
+}
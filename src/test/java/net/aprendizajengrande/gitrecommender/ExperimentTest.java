@@ -0,0 +1,96 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.aprendizajengrande.gitrecommender;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import net.aprendizajengrande.gitrecommender.reco.ScoredFile;
+
+public class ExperimentTest extends TestCase {
+
+	// every commit is tested once, and never trained on in its own split
+	public void testRandomSplits() {
+		int commits = 103;
+		List<Experiment.Split> splits = Experiment.randomSplits(commits, 5,
+				new Random(42));
+		assertEquals(5, splits.size());
+		int[] tested = new int[commits];
+		for (Experiment.Split split : splits) {
+			assertEquals(commits, split.training.length + split.test.length);
+			assertTrue(split.test.length == 20 || split.test.length == 21);
+			boolean[] inTest = new boolean[commits];
+			for (int commit : split.test) {
+				inTest[commit] = true;
+				tested[commit]++;
+			}
+			for (int commit : split.training)
+				assertFalse(inTest[commit]);
+			assertSorted(split.training);
+			assertSorted(split.test);
+		}
+		for (int commit = 0; commit < commits; commit++)
+			assertEquals(1, tested[commit]);
+
+		// the same seed, the same folds
+		List<Experiment.Split> again = Experiment.randomSplits(commits, 5,
+				new Random(42));
+		for (int i = 0; i < splits.size(); i++)
+			assertTrue(Arrays.equals(splits.get(i).test, again.get(i).test));
+	}
+
+	// trained on the history before the commits tested
+	public void testTimeSplits() {
+		List<Experiment.Split> splits = Experiment.timeSplits(10, 5);
+		assertEquals(4, splits.size());
+		for (int i = 0; i < splits.size(); i++) {
+			Experiment.Split split = splits.get(i);
+			assertEquals(2 * (i + 1), split.training.length);
+			for (int j = 0; j < split.training.length; j++)
+				assertEquals(j, split.training[j]);
+			assertTrue(Arrays.equals(new int[] { 2 * (i + 1), 2 * (i + 1) + 1 },
+					split.test));
+		}
+	}
+
+	public void testQuery() {
+		Experiment.Result result = new Experiment.Result();
+		result.latencies = new long[2];
+		// first hit at rank 2, one of the two targets found
+		result.query(10, Arrays.asList(new ScoredFile(7, 3f), new ScoredFile(
+				4, 2f), new ScoredFile(9, 1f)), new int[] { 4, 5 }, 3);
+		// nothing found, unknown targets are -1
+		result.query(20, Arrays.asList(new ScoredFile(7, 3f)), new int[] { -1 },
+				3);
+		assertEquals(2, result.queries);
+		assertEquals(1, result.hitQueries);
+		assertEquals(0.5, result.recall, 1e-9);
+		assertEquals(0.5, result.reciprocalRank, 1e-9);
+		assertEquals(1 / 3.0, result.precision, 1e-9);
+		assertTrue(Arrays.equals(new long[] { 10, 20 }, result.latencies));
+	}
+
+	private static void assertSorted(int[] commits) {
+		for (int i = 1; i < commits.length; i++)
+			assertTrue(commits[i - 1] < commits[i]);
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.aprendizajengrande.gitrecommender;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+
+public class ExtractLogTest extends TestCase {
+
+	private static final List<String> NAMES = Arrays.asList("plain",
+			"tab\there", "new\nline", "carriage\rreturn", "both\r\n",
+			"back\\slash", "escaped\\r", "trailing\\", "\u00f1and\u00fa");
+
+	private File dir;
+	private File repo;
+	private Git git;
+
+	protected void setUp() throws Exception {
+		dir = TempDirs.create("extract");
+		repo = new File(dir, "repo");
+		git = Git.init().setDirectory(repo).call();
+	}
+
+	protected void tearDown() {
+		git.getRepository().close();
+		TempDirs.delete(dir);
+	}
+
+	private void commit(String author, String... files) throws Exception {
+		for (String file : files) {
+			FileWriter w = new FileWriter(new File(repo, file), true);
+			w.write("x\n");
+			w.close();
+			git.add().addFilepattern(file).call();
+		}
+		PersonIdent ident = new PersonIdent(author, author + "@example.com");
+		git.commit().setAuthor(ident).setCommitter(ident)
+				.setMessage("change").call();
+	}
+
+	private void extract(String... slice) throws Exception {
+		List<String> args = new ArrayList<String>(Arrays.asList(new File(
+				repo, ".git").getPath(), new File(dir, "ex").getPath()));
+		args.addAll(Arrays.asList(slice));
+		ExtractLog.main(args.toArray(new String[args.size()]));
+	}
+
+	// sorted, the order of the rows depends on the hash maps
+	private List<String> lines(String suffix) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader br = new BufferedReader(new InputStreamReader(
+				new FileInputStream(new File(dir, "ex" + suffix)), "UTF-8"));
+		for (String line = br.readLine(); line != null; line = br.readLine())
+			lines.add(line);
+		br.close();
+		Collections.sort(lines);
+		return lines;
+	}
+
+	public void testEscape() {
+		for (String name : NAMES) {
+			String escaped = ExtractLog.escape(name);
+			assertEquals(-1, escaped.indexOf('\t'));
+			assertEquals(-1, escaped.indexOf('\n'));
+			assertEquals(-1, escaped.indexOf('\r'));
+			assertEquals(name, ExtractLog.unescape(escaped));
+		}
+	}
+
+	// names written the way the log is, read back
+	public void testReadEscapedNames() throws IOException {
+		File log = new File(dir, "ex.log");
+		PrintWriter pw = new PrintWriter(new OutputStreamWriter(
+				new FileOutputStream(log), "UTF-8"));
+		pw.println("a\t0\t" + ExtractLog.escape("carriage\rreturn"));
+		for (int i = 0; i < NAMES.size(); i++)
+			pw.println("f\t" + i + "\t" + ExtractLog.escape(NAMES.get(i)));
+		pw.println("c\tabc\t0\t0,3,4");
+		pw.close();
+
+		final List<String> authors = new ArrayList<String>();
+		final List<String> files = new ArrayList<String>();
+		final List<String> commits = new ArrayList<String>();
+		ExtractLog.read(log, new ExtractLog.Listener() {
+			public void author(int id, String name) {
+				authors.add(name);
+			}
+
+			public void file(int id, String name) {
+				files.add(name);
+			}
+
+			public void commit(String commit, int author, List<Integer> files) {
+				commits.add(commit + " " + author + " " + files);
+			}
+		});
+		assertEquals(Arrays.asList("carriage\rreturn"), authors);
+		assertEquals(NAMES, files);
+		assertEquals(Arrays.asList("abc 0 [0, 3, 4]"), commits);
+	}
+
+	// a second run continues from the log, a path with a carriage return
+	// in it included, and writes the slices from it
+	public void testResumeAndSlices() throws Exception {
+		commit("alice", "a.txt"); // root commit, no files
+		commit("bob", "a.txt", "carriage\rreturn.txt");
+		extract();
+		assertEquals(Arrays.asList("2\t1\t10000.0\t1", "2\t2\t10000.0\t1"),
+				lines(".dat"));
+
+		commit("alice", "carriage\rreturn.txt");
+		extract("1");
+		List<String> all = Arrays.asList("1\t2\t5000.0\t1",
+				"2\t1\t10000.0\t1", "2\t2\t10000.0\t1");
+		assertEquals(all, lines(".dat"));
+		assertEquals(Collections.<String> emptyList(), lines(".1.dat"));
+		assertEquals(Arrays.asList("2\t1\t10000.0\t1", "2\t2\t10000.0\t1"),
+				lines(".2.dat"));
+		assertEquals(all, lines(".3.dat"));
+		assertEquals(Arrays.asList("1\talice", "2\tbob"), lines(".users"));
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.aprendizajengrande.gitrecommender;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+public class MetricsTest extends TestCase {
+
+	private static String write(Metrics metrics) {
+		StringWriter out = new StringWriter();
+		PrintWriter writer = new PrintWriter(out);
+		metrics.write(writer);
+		writer.flush();
+		return out.toString();
+	}
+
+	public void testCounters() {
+		Metrics metrics = new Metrics();
+		Metrics.Counter a = metrics.counter("requests_total",
+				"path=\"/a\"", "Requests");
+		a.inc();
+		a.add(2);
+		// registered again, same counter
+		metrics.counter("requests_total", "path=\"/a\"", "Requests").inc();
+		metrics.counter("requests_total", "path=\"/b\"", "Requests");
+		metrics.gauge("queued", "", "Queued", new Metrics.Value() {
+			public double get() {
+				return 7;
+			}
+		});
+
+		String text = write(metrics);
+		assertTrue(text, text.contains("# TYPE requests_total counter\n"));
+		assertTrue(text, text.contains("requests_total{path=\"/a\"} 4\n"));
+		assertTrue(text, text.contains("requests_total{path=\"/b\"} 0\n"));
+		assertTrue(text, text.contains("# TYPE queued gauge\n"));
+		assertTrue(text, text.contains("queued 7.0\n"));
+
+		try {
+			metrics.histogram("queued", "", "Queued");
+			fail("registered as a gauge");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testHistogram() {
+		Metrics metrics = new Metrics();
+		Metrics.Histogram h = metrics.histogram("latency_seconds", "",
+				"Latency");
+		h.observeNanos(1000000L); // 1ms, in the le="0.001" bucket
+		h.observeNanos(3000000L); // 3ms
+		h.observeNanos(120000000000L); // 2 minutes, only in +Inf
+
+		String text = write(metrics);
+		assertTrue(text, text.contains("latency_seconds_bucket{le=\"5.0E-4\"} 0\n"));
+		assertTrue(text, text.contains("latency_seconds_bucket{le=\"0.001\"} 1\n"));
+		assertTrue(text, text.contains("latency_seconds_bucket{le=\"0.005\"} 2\n"));
+		assertTrue(text, text.contains("latency_seconds_bucket{le=\"60.0\"} 2\n"));
+		assertTrue(text, text.contains("latency_seconds_bucket{le=\"+Inf\"} 3\n"));
+		assertTrue(text, text.contains("latency_seconds_count 3\n"));
+		assertTrue(text, text.contains("latency_seconds_sum 120.004\n"));
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.aprendizajengrande.gitrecommender;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.aprendizajengrande.gitrecommender.db.DB;
+import net.aprendizajengrande.gitrecommender.reco.CoChangeRecommender;
+import net.aprendizajengrande.gitrecommender.reco.Recommendation;
+
+public class RecommendTest extends TestCase {
+
+	private File dir;
+	private DB db;
+	private Recommend recommend;
+
+	protected void setUp() throws IOException {
+		dir = TempDirs.create("recommend");
+		db = new DB(dir);
+		int alice = db.idAuthor("alice");
+		db.observeCommit("c0", alice,
+				Arrays.asList(db.idFile("a"), db.idFile("b")));
+		db.observeCommit("c1", alice,
+				Arrays.asList(db.idFile("a"), db.idFile("b"), db.idFile("c")));
+		db.observeCommit("c2", alice,
+				Arrays.asList(db.idFile("c"), db.idFile("d")));
+		recommend = new Recommend(db, new CoChangeRecommender(
+				db.coChanges(), db.files().size()));
+	}
+
+	protected void tearDown() throws IOException {
+		db.close();
+		TempDirs.delete(dir);
+	}
+
+	// sorted, distinct and only the files in the DB
+	public void testSeeds() {
+		assertEquals("[0, 2]", Arrays.toString(recommend.seeds(Arrays.asList(
+				"c", "a", "unknown", "c"))));
+		assertEquals(0, recommend.seeds(Arrays.asList("unknown")).length);
+	}
+
+	public void testRecommend() {
+		List<Recommendation> recos = recommend.recommend(Arrays.asList("a"),
+				2);
+		assertEquals(2, recos.size());
+		// b changed along with a twice, c once
+		assertEquals("b", recos.get(0).file());
+		assertEquals("c", recos.get(1).file());
+		assertTrue(recos.get(0).score() > recos.get(1).score());
+		// repeating a seed doesn't weight it twice
+		assertEquals(recos.toString(),
+				recommend.recommend(Arrays.asList("a", "a"), 2).toString());
+	}
+}
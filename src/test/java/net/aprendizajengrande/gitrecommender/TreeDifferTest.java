@@ -0,0 +1,149 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+
+public class TreeDifferTest extends TestCase {
+
+	private File dir;
+	private Repository repository;
+	private ObjectInserter inserter;
+
+	protected void setUp() throws IOException {
+		dir = TempDirs.create("differ");
+		repository = new FileRepositoryBuilder().setGitDir(dir).build();
+		repository.create(true);
+		inserter = repository.newObjectInserter();
+	}
+
+	protected void tearDown() {
+		inserter.release();
+		repository.close();
+		TempDirs.delete(dir);
+	}
+
+	private ObjectId blob(String content) throws IOException {
+		return inserter.insert(Constants.OBJ_BLOB,
+				Constants.encode(content));
+	}
+
+	// entries are name, mode, id, sorted by name
+	private ObjectId tree(Object... entries) throws IOException {
+		TreeFormatter tree = new TreeFormatter();
+		for (int i = 0; i < entries.length; i += 3)
+			tree.append((String) entries[i], (FileMode) entries[i + 1],
+					(ObjectId) entries[i + 2]);
+		return inserter.insert(tree);
+	}
+
+	private List<String> changedPaths(ObjectId oldTree, ObjectId newTree)
+			throws IOException {
+		TreeDiffer differ = new TreeDiffer(repository, false);
+		List<String> paths = new ArrayList<String>();
+		differ.changedPaths(oldTree, newTree, paths);
+		differ.release();
+		return paths;
+	}
+
+	private static List<String> describe(List<DiffEntry> entries) {
+		List<String> result = new ArrayList<String>();
+		for (DiffEntry entry : entries)
+			result.add(entry.getChangeType() + " " + entry.getOldPath() + " "
+					+ entry.getNewPath());
+		return result;
+	}
+
+	private CanonicalTreeParser parser(ObjectReader reader, ObjectId tree)
+			throws IOException {
+		CanonicalTreeParser result = new CanonicalTreeParser();
+		result.reset(reader, tree);
+		return result;
+	}
+
+	// the same entries as the porcelain diff
+	public void testSameAsPorcelain() throws Exception {
+		ObjectId same = tree("c.txt", FileMode.REGULAR_FILE, blob("c"));
+		ObjectId oldTree = tree("a.txt", FileMode.REGULAR_FILE, blob("a"),
+				"b.txt", FileMode.REGULAR_FILE, blob("b"), "dir",
+				FileMode.TREE, same);
+		ObjectId newTree = tree("a.txt", FileMode.REGULAR_FILE, blob("a2"),
+				"d.txt", FileMode.REGULAR_FILE, blob("d"), "dir",
+				FileMode.TREE, tree("c.txt", FileMode.REGULAR_FILE,
+						blob("c2")));
+		inserter.flush();
+
+		ObjectReader reader = repository.newObjectReader();
+		Git git = new Git(repository);
+		List<DiffEntry> expected = git.diff()
+				.setOldTree(parser(reader, oldTree))
+				.setNewTree(parser(reader, newTree)).call();
+		reader.release();
+
+		TreeDiffer differ = new TreeDiffer(repository, false);
+		assertEquals(describe(expected),
+				describe(differ.diff(oldTree, newTree)));
+		// and again, with the walk reused
+		assertEquals(describe(expected),
+				describe(differ.diff(oldTree, newTree)));
+		assertEquals(Arrays.asList("ADD /dev/null a.txt",
+				"ADD /dev/null b.txt", "ADD /dev/null dir/c.txt"),
+				describe(differ.diff(null, oldTree)));
+		differ.release();
+	}
+
+	public void testDeletionsAndTypeChanges() throws IOException {
+		ObjectId same = tree("c.txt", FileMode.REGULAR_FILE, blob("c"));
+		ObjectId oldTree = tree("a.txt", FileMode.REGULAR_FILE, blob("a"),
+				"b.txt", FileMode.REGULAR_FILE, blob("b"), "dir",
+				FileMode.TREE, same, "link", FileMode.REGULAR_FILE,
+				blob("target"));
+		ObjectId newTree = tree("a.txt", FileMode.REGULAR_FILE, blob("a2"),
+				"d.txt", FileMode.REGULAR_FILE, blob("d"), "dir",
+				FileMode.TREE, same, "link", FileMode.SYMLINK, blob("target"));
+		inserter.flush();
+
+		// modified, deleted, added and changed from file to link
+		List<String> paths = changedPaths(oldTree, newTree);
+		assertEquals(Arrays.asList("a.txt", "b.txt", "d.txt", "link"), paths);
+		assertFalse(paths.contains(DiffEntry.DEV_NULL));
+
+		// a first commit adds everything
+		assertEquals(Arrays.asList("a.txt", "b.txt", "dir/c.txt", "link"),
+				changedPaths(null, oldTree));
+	}
+}
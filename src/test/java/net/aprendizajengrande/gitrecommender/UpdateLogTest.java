@@ -0,0 +1,119 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.aprendizajengrande.gitrecommender;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import net.aprendizajengrande.gitrecommender.db.DB;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+public class UpdateLogTest extends TestCase {
+
+	private File dir;
+	private File dbDir;
+	private Git git;
+
+	protected void setUp() throws Exception {
+		dir = TempDirs.create("updatelog-git");
+		dbDir = TempDirs.create("updatelog-db");
+		git = Git.init().setDirectory(dir).call();
+	}
+
+	protected void tearDown() {
+		git.getRepository().close();
+		TempDirs.delete(dir);
+		TempDirs.delete(dbDir);
+	}
+
+	private RevCommit commit(String author, String... files) throws Exception {
+		for (String file : files) {
+			FileWriter w = new FileWriter(new File(dir, file), true);
+			w.write("x\n");
+			w.close();
+			git.add().addFilepattern(file).call();
+		}
+		PersonIdent ident = new PersonIdent(author, author + "@example.com");
+		return git.commit().setAuthor(ident).setCommitter(ident)
+				.setMessage("change").call();
+	}
+
+	private DB update() throws Exception {
+		UpdateLog.main(new String[] { new File(dir, ".git").getPath(),
+				dbDir.getPath() });
+		return new DB(dbDir);
+	}
+
+	private int count(DB db, String author, String file) throws IOException {
+		return db.counts(db.idAuthor(author)).get(db.idFile(file));
+	}
+
+	public void testImport() throws Exception {
+		commit("alice", "a.txt", "b.txt");
+		commit("alice", "a.txt");
+		RevCommit last = commit("bob", "a.txt", "c.txt");
+
+		DB db = update();
+		assertEquals(last.name(), db.lastCommit());
+		// the root commit counts, with no files
+		assertEquals(2, db.commits(db.idAuthor("alice")));
+		assertEquals(1, count(db, "alice", "a.txt"));
+		assertEquals(0, count(db, "alice", "b.txt"));
+		assertEquals(1, count(db, "bob", "a.txt"));
+		assertEquals(1, count(db, "bob", "c.txt"));
+		db.close();
+	}
+
+	public void testIncremental() throws Exception {
+		commit("alice", "a.txt");
+		commit("alice", "a.txt");
+		update().close();
+
+		RevCommit last = commit("alice", "a.txt", "b.txt");
+		DB db = update();
+		assertEquals(last.name(), db.lastCommit());
+		assertEquals(3, db.commits(db.idAuthor("alice")));
+		assertEquals(2, count(db, "alice", "a.txt"));
+		assertEquals(1, count(db, "alice", "b.txt"));
+		db.close();
+	}
+
+	// more commits than fit in one block of ids read back from the walk
+	public void testOrderAcrossBlocks() throws Exception {
+		commit("alice", "a.txt");
+		RevCommit last = null;
+		for (int i = 0; i < 1100; i++)
+			last = commit(i % 2 == 0 ? "alice" : "bob", "f" + (i % 7)
+					+ ".txt");
+
+		DB db = update();
+		// each commit advances the last one, only the newest may be last
+		assertEquals(last.name(), db.lastCommit());
+		assertEquals(551, db.commits(db.idAuthor("alice")));
+		assertEquals(550, db.commits(db.idAuthor("bob")));
+		assertEquals(79, count(db, "alice", "f0.txt"));
+		db.close();
+	}
+}
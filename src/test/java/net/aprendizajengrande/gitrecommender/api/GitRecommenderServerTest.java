@@ -0,0 +1,114 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.aprendizajengrande.gitrecommender.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.json.JSONObject;
+
+// requests rejected before any repository is touched
+public class GitRecommenderServerTest extends TestCase {
+
+	private Server server;
+	private int port;
+
+	protected void setUp() throws Exception {
+		server = new Server(0);
+		ServletHandler handler = new ServletHandler();
+		ServletHolder holder = new ServletHolder(new GitRecommenderServer());
+		handler.addServletWithMapping(holder, "/recommend");
+		handler.addServletWithMapping(holder, "/recommend/batch");
+		server.setHandler(handler);
+		server.start();
+		port = server.getConnectors()[0].getLocalPort();
+	}
+
+	protected void tearDown() throws Exception {
+		server.stop();
+	}
+
+	// the status, and the error message checked to be in a JSON body
+	private int post(String path, String body, StringBuilder msg)
+			throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:"
+				+ port + path).openConnection();
+		conn.setDoOutput(true);
+		OutputStream out = conn.getOutputStream();
+		out.write(body.getBytes("UTF-8"));
+		out.close();
+		int status = conn.getResponseCode();
+		InputStream in = status < 400 ? conn.getInputStream() : conn
+				.getErrorStream();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int read = in.read(buffer); read >= 0; read = in.read(buffer))
+			bytes.write(buffer, 0, read);
+		in.close();
+		msg.append(new JSONObject(bytes.toString("UTF-8")).getJSONObject(
+				"error").getString("msg"));
+		return status;
+	}
+
+	private void assertBadRequest(String body, String expected)
+			throws IOException {
+		assertBadRequest("/recommend", body, expected);
+	}
+
+	private void assertBadRequest(String path, String body, String expected)
+			throws IOException {
+		StringBuilder msg = new StringBuilder();
+		assertEquals(400, post(path, body, msg));
+		assertTrue(msg.toString(), msg.indexOf(expected) >= 0);
+	}
+
+	public void testMalformed() throws IOException {
+		assertBadRequest("[]", "Expected: JSON object");
+		assertBadRequest("{ \"repository\": ", "");
+		assertBadRequest("{ \"files\": [] }", "Expected: repository");
+		assertBadRequest("{ \"repository\": \"r\" }", "Expected: files");
+		assertBadRequest("{ \"repository\": 3, \"files\": [] }",
+				"Expected: repository string");
+		assertBadRequest("{ \"repository\": \"r\", \"files\": [ 1 ] }",
+				"Expected: file path string");
+		assertBadRequest(
+				"{ \"repository\": \"r\", \"files\": [], \"limit\": 0 }",
+				"Expected: limit between 1 and 1000");
+	}
+
+	public void testMalformedBatch() throws IOException {
+		assertBadRequest("/recommend/batch", "{ \"repository\": \"r\", "
+				+ "\"files\": [] }", "Expected: queries");
+		assertBadRequest("/recommend/batch", "{ \"repository\": \"r\", "
+				+ "\"queries\": [ \"a\" ] }", "Expected: files array");
+		assertBadRequest("/recommend/batch", "{ \"repository\": \"r\", "
+				+ "\"queries\": [ [ \"a\" ], [ 2 ] ] }",
+				"Expected: file path string");
+	}
+}
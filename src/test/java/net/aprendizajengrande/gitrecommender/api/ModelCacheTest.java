@@ -0,0 +1,209 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.aprendizajengrande.gitrecommender.api;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.aprendizajengrande.gitrecommender.TempDirs;
+import net.aprendizajengrande.gitrecommender.UpdateLog;
+import net.aprendizajengrande.gitrecommender.db.DB;
+import net.aprendizajengrande.gitrecommender.reco.ItemBasedRecommender.Similarity;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.PersonIdent;
+
+public class ModelCacheTest extends TestCase {
+
+	private File dir;
+
+	protected void setUp() throws IOException {
+		dir = TempDirs.create("models");
+	}
+
+	protected void tearDown() {
+		TempDirs.delete(dir);
+	}
+
+	// an indexed repository without a clone, the cache only reads its DB
+	private TrackedRepo repo(String name) throws IOException {
+		File repoDir = new File(dir, name);
+		File dbDir = new File(repoDir, "db");
+		dbDir.mkdirs();
+		FileWriter w = new FileWriter(new File(repoDir, "timestamp"));
+		w.write("1000\n");
+		w.close();
+
+		DB db = new DB(dbDir);
+		int alice = db.idAuthor("alice");
+		int bob = db.idAuthor("bob");
+		db.observeCommit("c0", alice,
+				Arrays.asList(db.idFile("a"), db.idFile("b")));
+		db.observeCommit("c1", bob,
+				Arrays.asList(db.idFile("b"), db.idFile("c")));
+		db.save();
+		db.close();
+		return new TrackedRepo("file://" + name, repoDir);
+	}
+
+	public void testHits() throws IOException {
+		ModelCache cache = new ModelCache(Long.MAX_VALUE, true, Similarity.COSINE);
+		TrackedRepo repo = repo("r1");
+		ModelCache.Model model = cache.get(repo);
+		assertSame(model, cache.get(repo));
+		assertEquals(1, cache.hits());
+		assertEquals(1, cache.misses());
+		assertEquals(model.bytes, cache.bytes());
+
+		// loaded again after an update
+		cache.invalidate(repo);
+		assertEquals(0, cache.bytes());
+		assertNotSame(model, cache.get(repo));
+		assertEquals(2, cache.misses());
+	}
+
+	// least recently used first, and never the model just loaded
+	public void testEviction() throws IOException {
+		TrackedRepo r1 = repo("r1");
+		TrackedRepo r2 = repo("r2");
+		TrackedRepo r3 = repo("r3");
+		long bytes = new ModelCache(Long.MAX_VALUE, true, Similarity.COSINE).get(r1).bytes;
+		assertTrue(bytes > 0);
+
+		// room for two models
+		ModelCache cache = new ModelCache(2 * bytes + bytes / 2, true,
+				Similarity.COSINE);
+		cache.get(r1);
+		cache.get(r2);
+		cache.get(r1);
+		cache.get(r3);
+		assertEquals(1, cache.evictions());
+		assertEquals(2, cache.size());
+		assertEquals(2 * bytes, cache.bytes());
+		long misses = cache.misses();
+		cache.get(r1);
+		assertEquals(misses, cache.misses());
+		cache.get(r2);
+		assertEquals(misses + 1, cache.misses());
+
+		// a model over the budget on its own is kept until the next one
+		cache = new ModelCache(1, true, Similarity.COSINE);
+		cache.get(r1);
+		assertEquals(1, cache.size());
+		cache.get(r2);
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.evictions());
+	}
+
+	private static void commit(Git git, String author, String... files)
+			throws Exception {
+		File work = git.getRepository().getWorkTree();
+		for (String file : files) {
+			FileWriter w = new FileWriter(new File(work, file), true);
+			w.write("x\n");
+			w.close();
+			git.add().addFilepattern(file).call();
+		}
+		PersonIdent ident = new PersonIdent(author, author + "@example.com");
+		git.commit().setAuthor(ident).setCommitter(ident)
+				.setMessage("change").call();
+	}
+
+	// the model for every file alone as seed
+	private static String recommendAll(ModelCache.Model model) {
+		StringBuilder sb = new StringBuilder();
+		int files = model.recommend.db().files().size();
+		for (int file = 0; file < files; file++)
+			sb.append(model.recommend.recommend(new int[] { file }, 20))
+					.append('\n');
+		return sb.toString();
+	}
+
+	// refreshed as the server does, an item-based model is updated from the
+	// one for the previous index, unless that one is older
+	public void testRefreshUpdates() throws Exception {
+		File origin = new File(dir, "origin");
+		Git git = Git.init().setDirectory(origin).call();
+		commit(git, "alice", "a.txt");
+		commit(git, "alice", "a.txt", "b.txt");
+		commit(git, "bob", "b.txt", "c.txt");
+		TrackedRepo repo = new TrackedRepo(origin.toURI().toString(),
+				new File(dir, "tracked"));
+		repo.ensureIndexed(NullProgressMonitor.INSTANCE,
+				new UpdateLog.Progress());
+
+		final ModelCache cache = new ModelCache(Long.MAX_VALUE, false,
+				Similarity.COSINE);
+		// misses the first refresh
+		final ModelCache stale = new ModelCache(Long.MAX_VALUE, false,
+				Similarity.COSINE);
+		cache.get(repo);
+		stale.get(repo);
+		final CountDownLatch[] refreshed = { null };
+		RefreshScheduler scheduler = new RefreshScheduler(
+				Arrays.asList(repo), 1L, 1, new RefreshScheduler.Listener() {
+					public void refreshed(TrackedRepo repo) {
+						try {
+							cache.refresh(repo);
+						} catch (IOException e) {
+							fail(e.toString());
+						}
+						refreshed[0].countDown();
+					}
+				});
+		try {
+			// a new author and a new file, known ones too
+			commit(git, "carol", "a.txt", "d.txt");
+			commit(git, "alice", "c.txt");
+			Thread.sleep(5);
+			refreshed[0] = new CountDownLatch(1);
+			scheduler.refresh(repo);
+			assertTrue(refreshed[0].await(10, TimeUnit.SECONDS));
+			assertEquals(1, cache.updates());
+			assertEquals(2, repo.changes().authors.length);
+			ModelCache.Model updated = cache.get(repo);
+			ModelCache.Model built = new ModelCache(Long.MAX_VALUE, false,
+					Similarity.COSINE).get(repo);
+			assertEquals(recommendAll(built), recommendAll(updated));
+
+			commit(git, "dave", "b.txt", "e.txt");
+			Thread.sleep(5);
+			refreshed[0] = new CountDownLatch(1);
+			scheduler.refresh(repo);
+			assertTrue(refreshed[0].await(10, TimeUnit.SECONDS));
+			assertEquals(2, cache.updates());
+
+			// its model is from before the previous refresh
+			stale.refresh(repo);
+			assertEquals(0, stale.updates());
+			assertEquals(recommendAll(cache.get(repo)),
+					recommendAll(stale.get(repo)));
+		} finally {
+			scheduler.stop();
+			git.getRepository().close();
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.aprendizajengrande.gitrecommender.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.aprendizajengrande.gitrecommender.TempDirs;
+import net.aprendizajengrande.gitrecommender.reco.Recommendation;
+
+public class ResultCacheTest extends TestCase {
+
+	private static final List<Recommendation> RECOS = Arrays
+			.asList(new Recommendation("a", 1f));
+
+	// seeds as Recommend.seeds() gives them, sorted and distinct
+	private static ResultCache.Key key(String url, String lastCommit,
+			int... seeds) {
+		return new ResultCache.Key(url, lastCommit, seeds, 10);
+	}
+
+	public void testKeys() {
+		ResultCache cache = new ResultCache(10, 60000);
+		cache.put(key("r", "c1", 1, 2, 3), RECOS);
+		assertSame(RECOS, cache.get(key("r", "c1", 1, 2, 3)));
+		// a new index, or a different number of results
+		assertNull(cache.get(key("r", "c2", 1, 2, 3)));
+		assertNull(cache.get(new ResultCache.Key("r", "c1", new int[] { 1,
+				2, 3 }, 5)));
+		assertEquals(1, cache.hits());
+		assertEquals(2, cache.misses());
+	}
+
+	public void testLeastRecentlyUsedOut() {
+		ResultCache cache = new ResultCache(2, 60000);
+		cache.put(key("r", "c", 1), RECOS);
+		cache.put(key("r", "c", 2), RECOS);
+		cache.get(key("r", "c", 1));
+		cache.put(key("r", "c", 3), RECOS);
+		assertEquals(2, cache.size());
+		assertNotNull(cache.get(key("r", "c", 1)));
+		assertNull(cache.get(key("r", "c", 2)));
+		assertNotNull(cache.get(key("r", "c", 3)));
+	}
+
+	public void testExpiry() throws InterruptedException {
+		ResultCache cache = new ResultCache(10, 0);
+		cache.put(key("r", "c", 1), RECOS);
+		Thread.sleep(5);
+		assertNull(cache.get(key("r", "c", 1)));
+		assertEquals(0, cache.size());
+	}
+
+	public void testInvalidate() throws IOException {
+		File dir = TempDirs.create("results");
+		try {
+			TrackedRepo repo = new TrackedRepo("r", dir);
+			ResultCache cache = new ResultCache(10, 60000);
+			cache.put(key("r", "c", 1), RECOS);
+			cache.put(key("r", "c", 2), RECOS);
+			cache.put(key("other", "c", 1), RECOS);
+			cache.invalidate(repo);
+			assertEquals(1, cache.size());
+			assertNotNull(cache.get(key("other", "c", 1)));
+		} finally {
+			TempDirs.delete(dir);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.aprendizajengrande.gitrecommender.api;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.aprendizajengrande.gitrecommender.TempDirs;
+import net.aprendizajengrande.gitrecommender.UpdateLog;
+import net.aprendizajengrande.gitrecommender.db.DB;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+public class TrackedRepoTest extends TestCase {
+
+	private File origin;
+	private File dir;
+	private Git git;
+
+	protected void setUp() throws Exception {
+		origin = TempDirs.create("tracked-origin");
+		dir = TempDirs.create("tracked");
+		git = Git.init().setDirectory(origin).call();
+	}
+
+	protected void tearDown() {
+		git.getRepository().close();
+		TempDirs.delete(origin);
+		TempDirs.delete(dir);
+	}
+
+	private RevCommit commit(String author, String... files) throws Exception {
+		for (String file : files) {
+			FileWriter w = new FileWriter(new File(origin, file), true);
+			w.write("x\n");
+			w.close();
+			git.add().addFilepattern(file).call();
+		}
+		PersonIdent ident = new PersonIdent(author, author + "@example.com");
+		return git.commit().setAuthor(ident).setCommitter(ident)
+				.setMessage("change").call();
+	}
+
+	// concurrent first requests clone and index once, and all of them
+	// find the DB in place
+	public void testConcurrentAcquire() throws Exception {
+		commit("alice", "a.txt", "b.txt");
+		final RevCommit last = commit("alice", "a.txt", "b.txt");
+		final TrackedRepo repo = new TrackedRepo(origin.toURI().toString(),
+				new File(dir, "repo"));
+		assertFalse(repo.cloned());
+
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						repo.ensureIndexed(NullProgressMonitor.INSTANCE,
+								new UpdateLog.Progress());
+						DB db = new DB(repo.dbDir());
+						assertEquals(last.name(), db.lastCommit());
+						assertEquals(2, db.commits(db.idAuthor("alice")));
+						db.close();
+					} catch (Throwable e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertTrue(repo.indexed());
+
+		// the state survives a restart
+		assertTrue(new TrackedRepo(repo.url, repo.dir).indexed());
+	}
+
+	// a stale repository is fetched and indexed again in the background
+	public void testRefresh() throws Exception {
+		commit("alice", "a.txt", "b.txt");
+		TrackedRepo repo = new TrackedRepo(origin.toURI().toString(),
+				new File(dir, "repo"));
+		final CountDownLatch refreshed = new CountDownLatch(1);
+		RefreshScheduler scheduler = new RefreshScheduler(
+				Arrays.asList(repo), 1L, 1, new RefreshScheduler.Listener() {
+					public void refreshed(TrackedRepo repo) {
+						refreshed.countDown();
+					}
+				});
+		assertFalse(scheduler.stale(repo)); // not indexed yet
+		UpdateLog.Progress progress = new UpdateLog.Progress();
+		repo.ensureIndexed(NullProgressMonitor.INSTANCE, progress);
+		assertEquals("done", progress.stage());
+		assertEquals(1, progress.walked());
+		assertEquals(1, progress.diffed());
+		assertEquals(1, progress.imported());
+		long indexed = repo.timestamp();
+
+		RevCommit last = commit("bob", "a.txt", "c.txt");
+		Thread.sleep(5);
+		assertTrue(scheduler.stale(repo));
+		scheduler.refresh(repo);
+		assertTrue(refreshed.await(10, TimeUnit.SECONDS));
+		scheduler.stop();
+		assertTrue(repo.timestamp() > indexed);
+
+		DB db = new DB(repo.dbDir());
+		assertEquals(last.name(), db.lastCommit());
+		assertEquals(1, db.counts(db.idAuthor("bob")).get(db.idFile("c.txt")));
+		db.close();
+	}
+}
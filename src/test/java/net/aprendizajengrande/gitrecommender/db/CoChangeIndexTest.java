@@ -0,0 +1,148 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class CoChangeIndexTest extends TestCase {
+
+	private static List<Integer> files(Integer... files) {
+		return Arrays.asList(files);
+	}
+
+	// as file:count, most frequent first
+	private static String neighbours(CoChangeIndex index, int file) {
+		List<int[]> entries = new ArrayList<int[]>();
+		IntIntView.Cursor c = index.neighbours(file).cursor();
+		while (c.next())
+			entries.add(new int[] { c.key(), c.value() });
+		Collections.sort(entries, new Comparator<int[]>() {
+			public int compare(int[] e1, int[] e2) {
+				int cmp = Integer.compare(e2[1], e1[1]);
+				return cmp != 0 ? cmp : Integer.compare(e1[0], e2[0]);
+			}
+		});
+		List<String> result = new ArrayList<String>();
+		for (int[] e : entries)
+			result.add(e[0] + ":" + e[1]);
+		return result.toString();
+	}
+
+	public void testObserve() {
+		CoChangeIndex index = new CoChangeIndex();
+		index.observe(files(0, 1, 2));
+		index.observe(files(0, 1));
+		assertEquals("[1:2, 2:1]", neighbours(index, 0));
+		assertEquals("[0:2, 2:1]", neighbours(index, 1));
+		assertEquals("[0:1, 1:1]", neighbours(index, 2));
+		assertEquals(2, index.changes(0));
+		assertEquals(1, index.changes(2));
+		assertEquals("[]", neighbours(index, 3));
+		assertEquals(0, index.changes(3));
+	}
+
+	// single files say nothing, huge commits are ignored
+	public void testIgnoredCommits() {
+		CoChangeIndex index = new CoChangeIndex();
+		index.observe(files(0));
+		List<Integer> huge = new ArrayList<Integer>();
+		for (int file = 0; file <= CoChangeIndex.MAX_COMMIT_FILES; file++)
+			huge.add(file);
+		index.observe(huge);
+		assertTrue(index.isEmpty());
+		assertEquals(0, index.changes(0));
+	}
+
+	// rows grow to twice the neighbours, then keep the most frequent
+	public void testPrune() {
+		CoChangeIndex index = new CoChangeIndex(2);
+		for (int i = 0; i < 3; i++)
+			index.observe(files(0, 1));
+		for (int i = 0; i < 2; i++)
+			index.observe(files(0, 2));
+		index.observe(files(0, 3));
+		index.observe(files(0, 4));
+		assertEquals("[1:3, 2:2, 3:1, 4:1]", neighbours(index, 0));
+		index.observe(files(0, 5));
+		assertEquals("[1:3, 2:2]", neighbours(index, 0));
+		// the other side of a pruned pair is kept
+		assertEquals("[0:1]", neighbours(index, 5));
+		assertEquals(8, index.changes(0));
+	}
+
+	// rows handed to the DB file are pruned to the neighbours kept, and
+	// don't see later changes
+	public void testSnapshot() {
+		CoChangeIndex index = new CoChangeIndex(2);
+		index.observe(files(0, 1, 2));
+		index.observe(files(0, 1));
+		index.observe(files(0, 3));
+		index.observe(files(4, 5));
+		IntIntView[] rows = index.snapshot(7);
+		assertEquals(7, rows.length);
+		assertEquals(2, rows[0].size());
+		assertEquals(2, rows[0].get(1));
+		assertEquals(1, rows[0].get(2));
+		assertFalse(rows[0].containsKey(3));
+		assertEquals("[1:2, 2:1]", neighbours(index, 0));
+		assertEquals(1, rows[5].get(4));
+		assertEquals(0, rows[6].size());
+		assertEquals("[3, 2, 1, 1, 1, 1, 0]",
+				Arrays.toString(index.changesPerFile(7)));
+
+		index.observe(files(0, 1));
+		index.observe(files(5, 6));
+		assertEquals("[1:3, 2:1]", neighbours(index, 0));
+		assertEquals(2, rows[0].get(1));
+		assertEquals(1, rows[5].size());
+		assertEquals(0, rows[6].size());
+	}
+
+	// cochange.tsv from text DBs
+	public void testLoad() throws IOException {
+		File file = File.createTempFile("cochange", ".tsv");
+		try {
+			PrintWriter pw = new PrintWriter(file);
+			pw.println("0\t2");
+			pw.println("\t1\t2");
+			pw.println("\t2\t1");
+			pw.println("2\t1");
+			pw.println("\t0\t1");
+			pw.close();
+			CoChangeIndex index = new CoChangeIndex();
+			index.load(file);
+			assertEquals("[1:2, 2:1]", neighbours(index, 0));
+			assertEquals("[0:1]", neighbours(index, 2));
+			assertEquals("[]", neighbours(index, 1));
+			assertEquals(2, index.changes(0));
+			assertEquals(1, index.changes(2));
+		} finally {
+			file.delete();
+		}
+	}
+}
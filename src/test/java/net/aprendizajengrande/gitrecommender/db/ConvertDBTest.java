@@ -0,0 +1,96 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.db;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import net.aprendizajengrande.gitrecommender.TempDirs;
+
+public class ConvertDBTest extends TestCase {
+
+	private File dir;
+
+	protected void setUp() throws IOException {
+		dir = TempDirs.create("convert");
+	}
+
+	protected void tearDown() {
+		TempDirs.delete(dir);
+	}
+
+	private void write(String name, String... lines) throws IOException {
+		PrintWriter pw = new PrintWriter(new FileWriter(new File(dir, name)));
+		for (String line : lines)
+			pw.println(line);
+		pw.close();
+	}
+
+	// as written by DB.save before DBFile
+	private void writeTsv() throws IOException {
+		write("counts.tsv", "0", "\t0\t2", "\t1\t1", "1", "\t1\t1", "\t2\t1");
+		write("commit-counts.tsv", "0\t2", "1\t1");
+		write("files.txt", "a.txt", "b.txt", "c.txt");
+		write("authors.txt", "alice", "bob");
+		write("last-commit.txt", "abcdef");
+		write("cochange.tsv", "0\t2", "\t1\t1", "1\t2", "\t0\t1", "\t2\t1",
+				"2\t1", "\t1\t1");
+	}
+
+	public void testConvert() throws Exception {
+		writeTsv();
+		ConvertDB.main(new String[] { dir.getPath() });
+		assertTrue(new File(dir, DBFile.NAME).exists());
+
+		// the text files are not read anymore
+		for (String name : new String[] { "counts.tsv", "commit-counts.tsv",
+				"files.txt", "authors.txt", "last-commit.txt", "cochange.tsv" })
+			assertTrue(new File(dir, name).delete());
+
+		DB db = new DB(dir);
+		assertEquals("abcdef", db.lastCommit());
+		assertEquals(Arrays.asList("alice", "bob"), db.authors());
+		assertEquals(Arrays.asList("a.txt", "b.txt", "c.txt"), db.files());
+		assertEquals(2, db.commits(0));
+		assertEquals(1, db.commits(1));
+		assertEquals(2, db.counts(0).get(0));
+		assertEquals(1, db.counts(0).get(1));
+		assertFalse(db.counts(0).containsKey(2));
+		assertEquals(1, db.counts(1).get(2));
+		assertEquals(2, db.coChanges().changes(1));
+		assertEquals(1, db.coChanges().neighbours(1).get(2));
+		assertEquals(1, db.coChanges().neighbours(0).get(1));
+		assertEquals(Integer.valueOf(2), db.idFileOrNull("c.txt"));
+
+		// and keeps growing from the snapshot
+		db.observeCommit("fedcba", db.idAuthor("carol"),
+				Arrays.asList(db.idFile("d.txt"), 0));
+		db.close();
+		db = new DB(dir);
+		assertEquals("fedcba", db.lastCommit());
+		assertEquals(3, db.authors().size());
+		assertEquals(1, db.counts(2).get(3));
+		assertEquals(3, db.coChanges().changes(0));
+		db.close();
+	}
+}
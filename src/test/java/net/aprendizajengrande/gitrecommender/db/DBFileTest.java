@@ -0,0 +1,132 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.db;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.aprendizajengrande.gitrecommender.TempDirs;
+
+public class DBFileTest extends TestCase {
+
+	private File dir;
+
+	protected void setUp() throws IOException {
+		dir = TempDirs.create("dbfile");
+	}
+
+	protected void tearDown() {
+		TempDirs.delete(dir);
+	}
+
+	private static IntIntHashMap row(int... pairs) {
+		IntIntHashMap row = new IntIntHashMap();
+		for (int i = 0; i < pairs.length; i += 2)
+			row.put(pairs[i], pairs[i + 1]);
+		return row;
+	}
+
+	public void testRoundTrip() throws IOException {
+		List<String> authors = Arrays.asList("carol", "alice", "bob");
+		List<String> files = Arrays.asList("src/Main.java", "README.md",
+				"a\u00f1o.txt", "src/Main.java.orig");
+		int[] commits = { 3, 1, 0 };
+		IntIntView[] counts = { row(3, 1, 0, 3, 2, 2), row(1, 1),
+				new IntIntHashMap() };
+		int[] changes = { 3, 1, 2, 1 };
+		IntIntView[] coChanges = { row(2, 2, 3, 1), null, row(0, 2), row(0, 1) };
+		File file = new File(dir, DBFile.NAME);
+		DBFile.write(file, 7, "cafebabe", authors, files, commits, counts,
+				changes, coChanges);
+		assertFalse(new File(dir, DBFile.NAME + ".tmp").exists());
+
+		DBFile db = DBFile.open(file);
+		assertEquals(7, db.generation());
+		assertEquals("cafebabe", db.lastCommit());
+		assertEquals(authors, db.authors());
+		assertEquals(files, db.files());
+		for (int id = 0; id < files.size(); id++)
+			assertEquals(id, db.files().id(files.get(id)));
+		for (int id = 0; id < authors.size(); id++)
+			assertEquals(id, db.authors().id(authors.get(id)));
+		assertEquals(-1, db.files().id("src/Main"));
+		assertEquals(-1, db.files().id("zzz"));
+		assertEquals(-1, db.authors().id(""));
+
+		assertEquals(3, db.counts().rows());
+		assertEquals(4, db.counts().entries());
+		assertTrue(Arrays.equals(commits, db.counts().totals()));
+		IntIntView first = db.counts().row(0);
+		assertEquals(3, first.size());
+		assertEquals(3, first.get(0));
+		assertEquals(2, first.get(2));
+		assertEquals(1, first.get(3));
+		assertEquals(0, first.get(1));
+		assertFalse(first.containsKey(1));
+		assertTrue(first.containsKey(3));
+		assertEquals(0, db.counts().row(2).size());
+		assertFalse(db.counts().row(2).cursor().next());
+
+		// columns come back sorted
+		IntIntView.Cursor c = first.cursor();
+		int previous = -1;
+		while (c.next()) {
+			assertTrue(c.key() > previous);
+			assertEquals(((IntIntHashMap) counts[0]).get(c.key()), c.value());
+			previous = c.key();
+		}
+
+		assertEquals(4, db.coChanges().rows());
+		assertEquals(2, db.coChanges().total(2));
+		assertEquals(0, db.coChanges().row(1).size());
+		assertEquals(2, db.coChanges().row(0).get(2));
+		assertEquals(1, db.coChanges().row(3).get(0));
+	}
+
+	public void testReplacesExisting() throws IOException {
+		File file = new File(dir, DBFile.NAME);
+		List<String> none = Arrays.asList();
+		DBFile.write(file, 1, "first", none, none, new int[0],
+				new IntIntView[0], new int[0], new IntIntView[0]);
+		DBFile.write(file, 2, "second", none, none, new int[0],
+				new IntIntView[0], new int[0], new IntIntView[0]);
+		DBFile db = DBFile.open(file);
+		assertEquals(2, db.generation());
+		assertEquals("second", db.lastCommit());
+		assertEquals(0, db.files().size());
+		assertEquals(-1, db.files().id("anything"));
+	}
+
+	public void testRejectsOtherFiles() throws IOException {
+		File file = new File(dir, DBFile.NAME);
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write("counts\t1\t2\n".getBytes("UTF-8"));
+		fos.close();
+		try {
+			DBFile.open(file);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
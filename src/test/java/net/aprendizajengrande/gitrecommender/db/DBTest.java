@@ -0,0 +1,214 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+import net.aprendizajengrande.gitrecommender.TempDirs;
+
+public class DBTest extends TestCase {
+
+	private File dir;
+
+	protected void setUp() throws IOException {
+		dir = TempDirs.create("db");
+	}
+
+	protected void tearDown() {
+		TempDirs.delete(dir);
+	}
+
+	// the array is shared until the counts change, and never changes itself
+	public void testCommitsPerAuthor() throws IOException {
+		DB db = new DB(dir);
+		int alice = db.idAuthor("alice");
+		db.observeCommit("c0", alice, Arrays.asList(db.idFile("a")));
+		int[] first = db.commitsPerAuthor();
+		assertEquals("[1]", Arrays.toString(first));
+		assertSame(first, db.commitsPerAuthor());
+
+		int bob = db.idAuthor("bob");
+		int[] second = db.commitsPerAuthor();
+		assertEquals("[1, 0]", Arrays.toString(second));
+		db.observeCommit("c1", bob, Arrays.asList(db.idFile("b")));
+		db.observeCommit("c2", alice, Arrays.asList(db.idFile("b")));
+		assertEquals("[2, 1]", Arrays.toString(db.commitsPerAuthor()));
+		assertEquals("[1]", Arrays.toString(first));
+		assertEquals("[1, 0]", Arrays.toString(second));
+		db.close();
+	}
+
+	public void testSaveAndLoad() throws IOException {
+		DB db = new DB(dir);
+		int alice = db.idAuthor("alice");
+		int bob = db.idAuthor("bob");
+		db.observeCommit("c0", alice,
+				Arrays.asList(db.idFile("a"), db.idFile("b")));
+		db.observeCommit("c1", alice, Arrays.asList(db.idFile("a")));
+		db.observeCommit("c2", bob, Arrays.asList(db.idFile("c")));
+		db.save();
+
+		DB loaded = new DB(dir);
+		assertEquals(db.authors(), loaded.authors());
+		assertEquals(db.files(), loaded.files());
+		assertEquals("c2", loaded.lastCommit());
+		assertEquals("[2, 1]", Arrays.toString(loaded.commitsPerAuthor()));
+		assertEquals(2, loaded.counts(alice).get(0));
+		assertEquals(1, loaded.counts(alice).get(1));
+		assertEquals(0, loaded.counts(alice).get(2));
+		assertEquals(1, loaded.counts(bob).get(2));
+		assertEquals(1, loaded.coChanges().changes(0));
+		db.close();
+		loaded.close();
+	}
+
+	// changes after the snapshot come back from the journal
+	public void testReplay() throws IOException {
+		DB db = new DB(dir);
+		int alice = db.idAuthor("alice");
+		db.observeCommit("c0", alice, Arrays.asList(db.idFile("a")));
+		db.save();
+		int bob = db.idAuthor("bob");
+		db.observeCommit("c1", bob,
+				Arrays.asList(db.idFile("a"), db.idFile("b")));
+		db.observeCommit("c2", alice, Arrays.asList(db.idFile("b")));
+		db.close();
+
+		DB loaded = new DB(dir);
+		assertEquals(Arrays.asList("alice", "bob"), loaded.authors());
+		assertEquals(Arrays.asList("a", "b"), loaded.files());
+		assertEquals("c2", loaded.lastCommit());
+		assertEquals("[2, 1]", Arrays.toString(loaded.commitsPerAuthor()));
+		assertEquals(1, loaded.counts(alice).get(1));
+		assertEquals(1, loaded.counts(bob).get(0));
+		assertEquals(1, loaded.coChanges().neighbours(0).get(1));
+
+		// and checkpoints fold it into the snapshot
+		loaded.save();
+		loaded.close();
+		for (String name : dir.list())
+			if (name.startsWith("journal."))
+				assertEquals(0, new File(dir, name).length());
+		loaded = new DB(dir);
+		assertEquals("[2, 1]", Arrays.toString(loaded.commitsPerAuthor()));
+		assertEquals(1, loaded.counts(bob).get(1));
+		loaded.close();
+	}
+
+	// a reader opening the DB while another process checkpoints it finds
+	// segments deleted after listing them, it starts over from the new
+	// snapshot
+	public void testOpenWhileCheckpointing() throws Exception {
+		final DB writer = new DB(dir);
+		final int author = writer.idAuthor("alice");
+		writer.observeCommit("c0", author, Arrays.asList(writer.idFile("a")));
+		writer.save();
+
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread thread = new Thread() {
+			public void run() {
+				try {
+					for (int i = 1; !done.get(); i++) {
+						writer.observeCommit("c" + i, author, Arrays
+								.asList(writer.idFile("f" + (i % 50))));
+						writer.sync();
+						if (i % 10 == 0)
+							writer.checkpoint();
+					}
+				} catch (Throwable t) {
+					failure.set(t);
+				}
+			}
+		};
+		thread.start();
+		try {
+			long end = System.currentTimeMillis() + 2000;
+			while (System.currentTimeMillis() < end && failure.get() == null) {
+				DB reader = new DB(dir);
+				// every commit up to the last one, and no other
+				String last = reader.lastCommit();
+				assertEquals(Integer.parseInt(last.substring(1)) + 1,
+						reader.commits(author));
+				reader.close();
+			}
+		} finally {
+			done.set(true);
+			thread.join();
+		}
+		assertNull(failure.get());
+		writer.close();
+	}
+
+	// with the snapshot in place, a missing segment is an error
+	public void testMissingSegment() throws IOException {
+		DB db = new DB(dir);
+		int author = db.idAuthor("alice");
+		db.observeCommit("c0", author, Arrays.asList(db.idFile("a")));
+		db.save();
+		db.observeCommit("c1", author, Arrays.asList(db.idFile("b")));
+		db.close();
+		File[] segments = dir.listFiles();
+		for (File segment : segments)
+			if (segment.getName().startsWith("journal."))
+				assertTrue(segment.renameTo(new File(dir, segment.getName()
+						+ "0")));
+		try {
+			new DB(dir);
+			fail();
+		} catch (JournalMismatchException e) {
+			// expected
+		}
+	}
+
+	// as indexed before deletions were recorded under their old path
+	public void testDropsDevNull() throws IOException {
+		DB db = new DB(dir);
+		int alice = db.idAuthor("alice");
+		int a = db.idFile("a");
+		int devNull = db.idFile("/dev/null");
+		int b = db.idFile("b");
+		db.observeCommit("c0", alice, Arrays.asList(a, devNull, b));
+		db.observeCommit("c1", alice, Arrays.asList(a, devNull));
+		db.save();
+		db.close();
+
+		db = new DB(dir);
+		assertEquals(devNull, (int) db.idFileOrNull("/dev/null"));
+		assertEquals(0, db.counts(alice).get(devNull));
+		assertEquals(2, db.counts(alice).get(a));
+		assertEquals(2, db.commits(alice));
+		assertEquals(0, db.coChanges().changes(devNull));
+		assertEquals(0, db.coChanges().neighbours(a).get(devNull));
+		assertEquals(1, db.coChanges().neighbours(a).get(b));
+		// and the snapshot written next doesn't have it either
+		db.save();
+		db.close();
+		db = new DB(dir);
+		assertEquals(0, db.counts(alice).get(devNull));
+		assertEquals(0, db.coChanges().neighbours(b).get(devNull));
+		assertEquals(1, db.coChanges().neighbours(b).get(a));
+		db.close();
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.db;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class IntIntHashMapTest extends TestCase {
+
+	private static Map<Integer, Integer> entries(IntIntView view) {
+		Map<Integer, Integer> result = new HashMap<Integer, Integer>();
+		IntIntView.Cursor c = view.cursor();
+		while (c.next())
+			assertNull("key seen twice", result.put(c.key(), c.value()));
+		return result;
+	}
+
+	public void testPutGetIncrement() {
+		IntIntHashMap map = new IntIntHashMap();
+		assertEquals(0, map.size());
+		assertEquals(0, map.get(7));
+		assertFalse(map.containsKey(7));
+		map.put(7, 3);
+		assertEquals(3, map.get(7));
+		assertEquals(5, map.increment(7, 2));
+		assertEquals(1, map.increment(0, 1));
+		map.put(7, 0);
+		// a zero value is still an entry
+		assertTrue(map.containsKey(7));
+		assertEquals(2, map.size());
+		assertEquals(0, map.get(7));
+	}
+
+	public void testNegativeKeys() {
+		IntIntHashMap map = new IntIntHashMap();
+		try {
+			map.put(-1, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			map.increment(-1, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(0, map.size());
+	}
+
+	// grows through many rehashes and agrees with a HashMap
+	public void testResize() {
+		Random random = new Random(42);
+		IntIntHashMap map = new IntIntHashMap(0);
+		Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		for (int i = 0; i < 20000; i++) {
+			// keys spread out and clustered, to exercise probing
+			int key = i % 2 == 0 ? random.nextInt(Integer.MAX_VALUE) : random
+					.nextInt(5000) * 1024;
+			int delta = 1 + random.nextInt(10);
+			Integer old = expected.get(key);
+			expected.put(key, (old == null ? 0 : old) + delta);
+			assertEquals((int) expected.get(key), map.increment(key, delta));
+		}
+		assertEquals(expected.size(), map.size());
+		for (Map.Entry<Integer, Integer> e : expected.entrySet())
+			assertEquals((int) e.getValue(), map.get(e.getKey()));
+		assertEquals(expected, entries(map));
+	}
+
+	// removals among colliding keys keep the others reachable
+	public void testRemove() {
+		Random random = new Random(7);
+		IntIntHashMap map = new IntIntHashMap(0);
+		Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		for (int i = 0; i < 20000; i++) {
+			int key = random.nextInt(300) * 1024;
+			if (random.nextInt(3) == 0) {
+				Integer old = expected.remove(key);
+				assertEquals(old == null ? 0 : (int) old, map.remove(key));
+			} else {
+				expected.put(key, i);
+				map.put(key, i);
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		assertEquals(expected, entries(map));
+		for (int key = 0; key < 300; key++)
+			assertEquals(expected.containsKey(key * 1024),
+					map.containsKey(key * 1024));
+	}
+
+	public void testCursor() {
+		IntIntHashMap map = new IntIntHashMap(100);
+		assertFalse(map.cursor().next());
+		for (int key = 0; key < 100; key++)
+			map.put(key * 31, key);
+		Map<Integer, Integer> seen = entries(map);
+		assertEquals(100, seen.size());
+		for (int key = 0; key < 100; key++)
+			assertEquals(Integer.valueOf(key), seen.get(key * 31));
+	}
+}
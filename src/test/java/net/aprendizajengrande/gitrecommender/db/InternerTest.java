@@ -0,0 +1,96 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.aprendizajengrande.gitrecommender.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class InternerTest extends TestCase {
+
+	public void testIds() {
+		Interner interner = new Interner();
+		assertEquals(0, interner.id("a"));
+		assertEquals(1, interner.id("b"));
+		assertEquals(0, interner.id("a"));
+		assertNull(interner.idOrNull("c"));
+		assertEquals(2, interner.size());
+		assertEquals("b", interner.get(1));
+	}
+
+	public void testSnapshot() {
+		Interner interner = new Interner();
+		interner.id("a");
+		List<String> snapshot = interner.snapshot();
+		List<String> live = interner.list();
+		for (int i = 0; i < 100; i++)
+			interner.id("s" + i);
+		assertEquals(1, snapshot.size());
+		assertEquals("a", snapshot.get(0));
+		assertEquals(101, live.size());
+		assertEquals("s99", live.get(100));
+	}
+
+	// every thread interns the same strings in a different order, they
+	// have to agree on dense, unique ids
+	public void testConcurrentIds() throws Exception {
+		final int strings = 4096; // odd strides visit all of them
+		final int threads = 4;
+		final Interner interner = new Interner();
+		final int[][] seen = new int[threads][strings];
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			workers[t] = new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; i < strings; i++) {
+							int s = (i * (2 * thread + 1)) % strings;
+							int id = interner.id("s" + s);
+							seen[thread][s] = id;
+							assertEquals("s" + s, interner.get(id));
+						}
+					} catch (Throwable e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					}
+				}
+			};
+			workers[t].start();
+		}
+		for (Thread worker : workers)
+			worker.join();
+		assertTrue(errors.toString(), errors.isEmpty());
+
+		assertEquals(strings, interner.size());
+		boolean[] used = new boolean[strings];
+		for (int s = 0; s < strings; s++) {
+			int id = seen[0][s];
+			for (int t = 1; t < threads; t++)
+				assertEquals(id, seen[t][s]);
+			assertFalse(used[id]);
+			used[id] = true;
+			assertEquals("s" + s, interner.get(id));
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.aprendizajengrande.gitrecommender.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.aprendizajengrande.gitrecommender.TempDirs;
+
+public class JournalTest extends TestCase {
+
+	private File dir;
+
+	protected void setUp() throws IOException {
+		dir = TempDirs.create("journal");
+	}
+
+	protected void tearDown() {
+		TempDirs.delete(dir);
+	}
+
+	// the replayed records, one string each
+	private static class Recorder implements Journal.Listener {
+		final List<String> records = new ArrayList<>();
+
+		public void author(int id, String name) {
+			records.add("author " + id + " " + name);
+		}
+
+		public void file(int id, String name) {
+			records.add("file " + id + " " + name);
+		}
+
+		public void commit(String name, int author, List<Integer> files) {
+			records.add("commit " + name + " " + author + " " + files);
+		}
+	}
+
+	private File segment() {
+		return Journal.segmentFile(dir, 0);
+	}
+
+	// segment length after the last new file
+	private long afterFile;
+
+	private void writeTwoCommits() throws IOException {
+		Journal journal = new Journal(dir, 0, 0);
+		journal.author(0, "alice");
+		journal.file(0, "a.txt");
+		journal.file(1, "b.txt");
+		journal.commit("c1", 0, Arrays.asList(0, 1));
+		journal.file(2, "c.txt");
+		journal.sync();
+		afterFile = segment().length();
+		journal.commit("c2", 0, Arrays.asList(2));
+		journal.close();
+	}
+
+	private List<String> replay() throws IOException {
+		Recorder recorder = new Recorder();
+		Journal.replay(segment(), recorder);
+		return recorder.records;
+	}
+
+	public void testReplay() throws IOException {
+		writeTwoCommits();
+		assertEquals(Arrays.asList("author 0 alice", "file 0 a.txt",
+				"file 1 b.txt", "commit c1 0 [0, 1]", "file 2 c.txt",
+				"commit c2 0 [2]"), replay());
+		assertEquals(segment().length(),
+				Journal.replay(segment(), new Recorder()));
+	}
+
+	public void testTornRecord() throws IOException {
+		writeTwoCommits();
+		long length = segment().length();
+		// a crash in the middle of writing the last commit
+		try (RandomAccessFile raf = new RandomAccessFile(segment(), "rw")) {
+			raf.setLength(length - 3);
+		}
+		Recorder recorder = new Recorder();
+		long valid = Journal.replay(segment(), recorder);
+		assertEquals(afterFile, valid);
+		assertEquals(Arrays.asList("author 0 alice", "file 0 a.txt",
+				"file 1 b.txt", "commit c1 0 [0, 1]", "file 2 c.txt"),
+				recorder.records);
+
+		// appending again drops the torn tail first
+		Journal journal = new Journal(dir, 0, valid);
+		journal.file(3, "d.txt");
+		journal.commit("c3", 0, Arrays.asList(3));
+		journal.close();
+		List<String> records = replay();
+		assertEquals("commit c3 0 [3]", records.get(records.size() - 1));
+		assertEquals(7, records.size());
+	}
+
+	public void testBadChecksum() throws IOException {
+		writeTwoCommits();
+		// flip the last byte, a file id of the second commit
+		try (RandomAccessFile raf = new RandomAccessFile(segment(), "rw")) {
+			long last = raf.length() - 1;
+			raf.seek(last);
+			int b = raf.read();
+			raf.seek(last);
+			raf.write(b ^ 0xff);
+		}
+		assertEquals(afterFile, Journal.replay(segment(), new Recorder()));
+		List<String> records = replay();
+		assertEquals("file 2 c.txt", records.get(records.size() - 1));
+	}
+
+	public void testBadChecksumInTheMiddle() throws IOException {
+		writeTwoCommits();
+		// the type of the first record, nothing after a corrupted record is
+		// trusted
+		try (RandomAccessFile raf = new RandomAccessFile(segment(), "rw")) {
+			raf.seek(8);
+			int b = raf.read();
+			raf.seek(8);
+			raf.write(b ^ 0xff);
+		}
+		assertEquals(0, Journal.replay(segment(), new Recorder()));
+		assertTrue(replay().isEmpty());
+	}
+
+	// listed, then deleted by a checkpoint in another process, see DB.load
+	public void testDeletedSegment() throws IOException {
+		writeTwoCommits();
+		File segment = segment();
+		assertTrue(segment.delete());
+		try {
+			Journal.replay(segment, new Recorder());
+			fail();
+		} catch (JournalMismatchException e) {
+			// expected
+		}
+	}
+}
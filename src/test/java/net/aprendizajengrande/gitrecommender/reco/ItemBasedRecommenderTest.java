@@ -0,0 +1,200 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.aprendizajengrande.gitrecommender.reco;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+import net.aprendizajengrande.gitrecommender.TempDirs;
+import net.aprendizajengrande.gitrecommender.db.DB;
+import net.aprendizajengrande.gitrecommender.db.IntIntHashMap;
+import net.aprendizajengrande.gitrecommender.db.IntIntView;
+import net.aprendizajengrande.gitrecommender.reco.ItemBasedRecommender.Similarity;
+
+public class ItemBasedRecommenderTest extends TestCase {
+
+	// a0 touched f0 f1, a1 f0 f1 f2, a2 f2 f3
+	private static final int[][] TOUCHED = { { 0, 1 }, { 0, 1, 2 }, { 2, 3 } };
+
+	private File dir;
+	private DB db;
+	private final Random random = new Random(42);
+	private int commits = 0;
+	// authors of the commits observed since the last clear
+	private final TreeSet<Integer> changed = new TreeSet<Integer>();
+
+	protected void setUp() throws IOException {
+		dir = TempDirs.create("itembased");
+		db = new DB(dir);
+	}
+
+	protected void tearDown() throws IOException {
+		db.close();
+		TempDirs.delete(dir);
+	}
+
+	private ItemBasedRecommender recommender(Similarity similarity) {
+		IntIntView[] counts = new IntIntView[TOUCHED.length];
+		int[] commits = new int[TOUCHED.length];
+		for (int author = 0; author < TOUCHED.length; author++) {
+			IntIntHashMap row = new IntIntHashMap();
+			for (int file : TOUCHED[author])
+				row.put(file, 1);
+			counts[author] = row;
+			commits[author] = 1;
+		}
+		return new ItemBasedRecommender(commits, counts, 4, similarity);
+	}
+
+	private static List<String> recommend(Recommender recommender,
+			int[] seeds, int howMany) {
+		List<String> result = new ArrayList<String>();
+		for (ScoredFile reco : recommender.recommend(seeds, howMany))
+			result.add(reco.toString());
+		return result;
+	}
+
+	private static List<String> recommend(Recommender recommender, int[] seeds) {
+		return recommend(recommender, seeds, 20);
+	}
+
+	// commits of the given authors over the given files, a few files each
+	private void observe(int count, int authors, int files) throws IOException {
+		for (int c = 0; c < count; c++) {
+			List<Integer> touched = new ArrayList<Integer>();
+			int size = 1 + random.nextInt(6);
+			for (int i = 0; i < size; i++) {
+				int file = db.idFile("f" + random.nextInt(files));
+				if (!touched.contains(file))
+					touched.add(file);
+			}
+			int author = db.idAuthor("a" + random.nextInt(authors));
+			db.observeCommit("c" + commits++, author, touched);
+			changed.add(author);
+		}
+	}
+
+	private int[] changed() {
+		int[] authors = new int[changed.size()];
+		int pos = 0;
+		for (int author : changed)
+			authors[pos++] = author;
+		return authors;
+	}
+
+	// single files and random sets of them
+	private List<int[]> queries() {
+		List<int[]> queries = new ArrayList<int[]>();
+		int files = db.files().size();
+		for (int file = 0; file < files; file++)
+			queries.add(new int[] { file });
+		for (int i = 0; i < 200; i++) {
+			int[] seeds = new int[2 + random.nextInt(4)];
+			for (int s = 0; s < seeds.length; s++)
+				seeds[s] = random.nextInt(files);
+			Arrays.sort(seeds);
+			queries.add(seeds);
+		}
+		return queries;
+	}
+
+	public void testCooccurrence() {
+		ItemBasedRecommender recommender = recommender(Similarity.COOCCURRENCE);
+		// f3 shares no author with f0
+		assertEquals("[1:2.0, 2:1.0]",
+				recommend(recommender, new int[] { 0 }, 10).toString());
+	}
+
+	public void testCosine() {
+		ItemBasedRecommender recommender = recommender(Similarity.COSINE);
+		assertEquals("[1:1.0, 2:0.5]",
+				recommend(recommender, new int[] { 0 }, 10).toString());
+		// scores add up over the seeds: f2 gets 0.5 from f0 and
+		// 1/sqrt(2) from f3, the seeds themselves are left out
+		List<ScoredFile> recos = recommender.recommend(new int[] { 0, 3 }, 10);
+		assertEquals(2, recos.size());
+		assertEquals(2, recos.get(0).file());
+		assertEquals(0.5 + 1 / Math.sqrt(2), recos.get(0).score(), 1e-6);
+		assertEquals(1, recos.get(1).file());
+	}
+
+	public void testHowManyAndUnknownSeeds() {
+		ItemBasedRecommender recommender = recommender(Similarity.COSINE);
+		assertEquals("[1:1.0]",
+				recommend(recommender, new int[] { 0 }, 1).toString());
+		assertEquals("[]", recommend(recommender, new int[] { -1, 4 }, 10)
+				.toString());
+	}
+
+	private void checkUpdate(Similarity similarity) throws IOException {
+		observe(600, 30, 300);
+		ItemBasedRecommender before = new ItemBasedRecommender(db, similarity);
+		List<int[]> oldQueries = queries();
+		List<List<String>> oldRecos = new ArrayList<List<String>>();
+		for (int[] seeds : oldQueries)
+			oldRecos.add(recommend(before, seeds));
+
+		// known and new authors, known and new files
+		changed.clear();
+		observe(40, 35, 340);
+		ItemBasedRecommender updated = before.update(db);
+		// from the authors of the new commits, as after a refresh
+		ItemBasedRecommender fromChanged = before.update(db, changed());
+		ItemBasedRecommender built = new ItemBasedRecommender(db, similarity);
+		for (int[] seeds : queries()) {
+			assertEquals(Arrays.toString(seeds), recommend(built, seeds),
+					recommend(updated, seeds));
+			assertEquals(Arrays.toString(seeds), recommend(built, seeds),
+					recommend(fromChanged, seeds));
+		}
+
+		// the model updated from still answers for the older index
+		for (int i = 0; i < oldQueries.size(); i++)
+			assertEquals(oldRecos.get(i), recommend(before, oldQueries.get(i)));
+	}
+
+	public void testUpdateCosine() throws IOException {
+		checkUpdate(Similarity.COSINE);
+	}
+
+	public void testUpdateCooccurrence() throws IOException {
+		checkUpdate(Similarity.COOCCURRENCE);
+	}
+
+	// nothing new, nothing to build
+	public void testUpdateUnchanged() throws IOException {
+		observe(100, 10, 50);
+		ItemBasedRecommender before = new ItemBasedRecommender(db,
+				Similarity.COSINE);
+		ItemBasedRecommender updated = before.update(db);
+		ItemBasedRecommender fromChanged = before.update(db, new int[0]);
+		for (int[] seeds : queries()) {
+			assertEquals(recommend(before, seeds), recommend(updated, seeds));
+			assertEquals(recommend(before, seeds),
+					recommend(fromChanged, seeds));
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ *   This file is part of gitrecommender
+ *   Copyright (C) 2014-2019 Pablo Duboue <pablo.duboue@gmail.com>
+ * 
+ *   gitrecommender is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as 
+ *   published by the Free Software Foundation, either version 3 of 
+ *   the License, or (at your option) any later version.
+ *
+ *   gitrecommender is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *   
+ *   You should have received a copy of the GNU General Public License 
+ *   along with gitrecommender.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.aprendizajengrande.gitrecommender.reco;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.aprendizajengrande.gitrecommender.TempDirs;
+import net.aprendizajengrande.gitrecommender.db.DB;
+
+public class MinHashRecommenderTest extends TestCase {
+
+	// f0 and f1 touched by elements 0-9, f2 by 100-109, f3 by none, f4 by
+	// 200-299 and f5 by 200-289 and 300-309 (Jaccard 90/110)
+	private static int[][] sets() {
+		List<List<Integer>> sets = new ArrayList<List<Integer>>();
+		for (int element = 0; element < 310; element++)
+			sets.add(new ArrayList<Integer>());
+		for (int element = 0; element < 10; element++)
+			sets.get(element).addAll(Arrays.asList(0, 1));
+		for (int element = 100; element < 110; element++)
+			sets.get(element).add(2);
+		for (int element = 200; element < 300; element++)
+			sets.get(element).add(4);
+		for (int element = 200; element < 290; element++)
+			sets.get(element).add(5);
+		for (int element = 300; element < 310; element++)
+			sets.get(element).add(5);
+		int[][] result = new int[sets.size()][];
+		for (int element = 0; element < result.length; element++) {
+			List<Integer> files = sets.get(element);
+			result[element] = new int[files.size()];
+			for (int i = 0; i < files.size(); i++)
+				result[element][i] = files.get(i);
+		}
+		return result;
+	}
+
+	private static MinHashRecommender recommender() {
+		return new MinHashRecommender(sets(), 6, MinHashRecommender.BANDS,
+				MinHashRecommender.ROWS, 42L);
+	}
+
+	public void testSameSets() {
+		List<ScoredFile> recos = recommender().recommend(new int[] { 0 }, 10);
+		assertEquals(1, recos.size());
+		assertEquals(1, recos.get(0).file());
+		assertEquals(1.0f, recos.get(0).score(), 1e-6f);
+	}
+
+	// the share of equal hashes estimates the Jaccard similarity
+	public void testSimilarSets() {
+		List<ScoredFile> recos = recommender().recommend(new int[] { 4 }, 10);
+		assertEquals(1, recos.size());
+		assertEquals(5, recos.get(0).file());
+		assertEquals(90 / 110.0, recos.get(0).score(), 0.2);
+	}
+
+	public void testUnrelatedAndUnknownSeeds() {
+		MinHashRecommender recommender = recommender();
+		assertEquals(0, recommender.recommend(new int[] { 2 }, 10).size());
+		assertEquals(0, recommender.recommend(new int[] { 3, -1, 6 }, 10)
+				.size());
+		// the seeds themselves are left out
+		assertEquals(0, recommender.recommend(new int[] { 0, 1 }, 10).size());
+	}
+
+	// over the authors of a DB
+	public void testFromDB() throws IOException {
+		File dir = TempDirs.create("minhash");
+		DB db = new DB(dir);
+		try {
+			int a = db.idFile("a");
+			int b = db.idFile("b");
+			int c = db.idFile("c");
+			db.observeCommit("c0", db.idAuthor("alice"), Arrays.asList(a, b));
+			db.observeCommit("c1", db.idAuthor("bob"), Arrays.asList(a, b));
+			db.observeCommit("c2", db.idAuthor("carol"), Arrays.asList(c));
+			MinHashRecommender recommender = new MinHashRecommender(db,
+					MinHashRecommender.BANDS, MinHashRecommender.ROWS);
+			List<ScoredFile> recos = recommender.recommend(new int[] { a }, 10);
+			assertEquals(1, recos.size());
+			assertEquals(b, recos.get(0).file());
+			assertTrue(recommender.heapBytes() > 0);
+		} finally {
+			db.close();
+			TempDirs.delete(dir);
+		}
+	}
+}